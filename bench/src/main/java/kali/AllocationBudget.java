@@ -0,0 +1,92 @@
+package kali;
+
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+/**
+ * Bytes allocated per iteration of the interpreter's hot paths, checked against a budget, so a
+ * change that makes a path allocate more fails the build (gradle :bench:allocationBudget, part of
+ * :bench:check) instead of showing up as a slower benchmark later.
+ *
+ * Each path is a Corpus-style script with the number of iterations as a parameter. It is warmed up,
+ * then run with n and with 2n iterations, and the difference divided by n: what every script
+ * allocates once (globals, the class, the instance) cancels out, and what is left is the cost of one
+ * iteration, loop included. The numbers are this thread's allocations, so they do not move with heap
+ * size or collector, and come out the same on every run but for a few bytes of rounding.
+ *
+ * A budget is today's cost with a little room. When a path gets cheaper, lower its budget with the
+ * change, so it cannot quietly go back up.
+ */
+public final class AllocationBudget {
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  private static final int ITERATIONS = 20_000;
+  private static final int WARMUPS = 20;
+
+  private AllocationBudget() {}
+
+  /** One hot path: a script of n iterations, and the bytes one iteration may allocate. */
+  static final class Path {
+    final String name;
+    final IntFunction<String> script;
+    final long budget;
+
+    Path(String name, IntFunction<String> script, long budget) {
+      this.name = name;
+      this.script = script;
+      this.budget = budget;
+    }
+  }
+
+  static final List<Path> PATHS = List.of(
+    new Path("numeric loop", Corpus::numeric, 240),
+    new Path("function call", Corpus::calls, 440),
+    new Path("method call", Corpus::dispatch, 680),
+    new Path("field get/set", Corpus::fields, 160),
+    new Path("block", Corpus::blocks, 336)
+  );
+
+  public static void main(String[] args) {
+    if (!THREADS.isThreadAllocatedMemorySupported()) {
+      System.out.println("Allocation counting is not supported by this JVM, nothing checked.");
+      return;
+    }
+    THREADS.setThreadAllocatedMemoryEnabled(true);
+
+    List<String> failures = new ArrayList<>();
+    for (Path path : PATHS) {
+      double perIteration = measure(path);
+      boolean ok = perIteration <= path.budget;
+      System.out.println(String.format(Locale.ROOT, "%-14s %8.1f bytes/iteration (budget %d)%s",
+          path.name, perIteration, path.budget, ok ? "" : "  OVER BUDGET"));
+      if (!ok) failures.add(path.name);
+    }
+
+    if (!failures.isEmpty()) {
+      System.err.println("Over the allocation budget: " + String.join(", ", failures) + ".");
+      System.exit(1);
+    }
+  }
+
+  static double measure(Path path) {
+    CompiledScript once = KaliEngine.compile(path.script.apply(ITERATIONS));
+    CompiledScript twice = KaliEngine.compile(path.script.apply(2 * ITERATIONS));
+    for (int i = 0; i < WARMUPS; i++) {
+      once.run(Writer.nullWriter());
+      twice.run(Writer.nullWriter());
+    }
+    return (allocated(twice) - allocated(once)) / (double)ITERATIONS;
+  }
+
+  private static long allocated(CompiledScript script) {
+    long thread = Thread.currentThread().getId();
+    long before = THREADS.getThreadAllocatedBytes(thread);
+    script.run(Writer.nullWriter());
+    return THREADS.getThreadAllocatedBytes(thread) - before;
+  }
+}
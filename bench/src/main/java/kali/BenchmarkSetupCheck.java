@@ -0,0 +1,46 @@
+package kali;
+
+import java.io.Writer;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Runs the @Setup of every JMH state, for each of its @Param values, and each benchmark method once
+ * (gradle :bench:setupCheck, part of :bench:check). A broken setup otherwise only shows up when
+ * someone runs the benchmarks, as every one of them failing before it measures anything.
+ */
+public final class BenchmarkSetupCheck {
+  private BenchmarkSetupCheck() {}
+
+  public static void main(String[] args) throws ReflectiveOperationException {
+    for (String size : params(FrontEndBenchmark.class, "size")) {
+      FrontEndBenchmark frontEnd = new FrontEndBenchmark();
+      frontEnd.size = size;
+      frontEnd.setUp();
+      frontEnd.scan();
+      frontEnd.parse();
+      frontEnd.resolve();
+      frontEnd.typeCheck();
+    }
+
+    InterpreterBenchmark interpreter = new InterpreterBenchmark();
+    interpreter.setUp();
+    for (String hops : params(InterpreterBenchmark.Hops.class, "hops")) {
+      InterpreterBenchmark.Hops state = new InterpreterBenchmark.Hops();
+      state.hops = Integer.parseInt(hops);
+      state.setUp();
+      interpreter.variableAccess(state);
+    }
+    interpreter.methodDispatch();
+    interpreter.stringConcat();
+    interpreter.numericLoop();
+    interpreter.callOverhead();
+
+    System.out.println("Every benchmark set up and ran once.");
+  }
+
+  /** The values JMH would give a @Param field. */
+  private static String[] params(Class<?> state, String field) throws NoSuchFieldException {
+    return state.getField(field).getAnnotation(Param.class).value();
+  }
+}
@@ -0,0 +1,173 @@
+package kali;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The fixed inputs of the benchmarks. Everything is generated from a constant seed, so a corpus
+ * is the same on every machine and run, and a result compares to an older one only if this file
+ * did not change.
+ *
+ * programs are front-end inputs: a mix of the declarations and statements real scripts use, which
+ * scan, parse, resolve and type check without errors. The microbenchmark scripts each stress one
+ * thing in the interpreter, with the number of iterations as a parameter.
+ */
+final class Corpus {
+  /** Sizes of program, in top-level units of a few declarations each. */
+  static final String SMALL = "small";
+  static final String MEDIUM = "medium";
+  static final String LARGE = "large";
+
+  private static final long SEED = 20240601L;
+
+  private Corpus() {}
+
+  static int units(String size) {
+    switch (size) {
+      case SMALL: return 10;
+      case MEDIUM: return 200;
+      case LARGE: return 4000;
+      default: throw new IllegalArgumentException("Unknown corpus size " + size + ".");
+    }
+  }
+
+  static String program(String size) {
+    Random random = new Random(SEED);
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < units(size); i++) {
+      int k = random.nextInt(100);
+      switch (random.nextInt(5)) {
+        case 0:
+          source.append("class C").append(i).append(" {\n")
+            .append("  number v;\n")
+            .append("  void C").append(i).append("(number v) { this.v = v; }\n")
+            .append("  number get() { return this.v + ").append(k).append("; }\n")
+            .append("}\n")
+            .append("C").append(i).append(" c").append(i).append(" = C").append(i).append("(").append(k).append(");\n")
+            .append("number g").append(i).append(" = c").append(i).append(".get();\n");
+          break;
+        case 1:
+          source.append("number f").append(i).append("(number n) {\n")
+            .append("  number s = 0;\n")
+            .append("  number j = 0;\n")
+            .append("  while (j < n) {\n")
+            .append("    s = s + j * ").append(k).append(" - (j / 2);\n")
+            .append("    j = j + 1;\n")
+            .append("  }\n")
+            .append("  return s;\n")
+            .append("}\n")
+            .append("number r").append(i).append(" = f").append(i).append("(").append(k % 10).append(");\n");
+          break;
+        case 2:
+          source.append("string s").append(i).append(" = \"unit ").append(i).append(" of the corpus\";\n")
+            .append("if (s").append(i).append(" == \"x\" or ").append(k).append(" > 50) {\n")
+            .append("  s").append(i).append(" = s").append(i).append(" + \"!\";\n")
+            .append("} else {\n")
+            .append("  s").append(i).append(" = \"\";\n")
+            .append("}\n");
+          break;
+        case 3:
+          source.append("number[] a").append(i).append(" = number[](").append(k + 1).append(");\n")
+            .append("for (number i = 0; i < a").append(i).append(".length; i++) {\n")
+            .append("  a").append(i).append("[i] = i * ").append(k).append(";\n")
+            .append("}\n");
+          break;
+        default:
+          source.append("boolean b").append(i).append(" = !(").append(k).append(" < 10) and true;\n")
+            .append("{\n")
+            .append("  number x = ").append(k).append(";\n")
+            .append("  { x = x + 1; }\n")
+            .append("  b").append(i).append(" = x >= ").append(k).append(";\n")
+            .append("}\n");
+          break;
+      }
+    }
+    return source.toString();
+  }
+
+  /**
+   * Reads and writes a variable declared `hops` scopes out from the loop body, so the lookup
+   * walks that many environments.
+   */
+  static String hops(int hops, int iterations) {
+    StringBuilder source = new StringBuilder("void run() {\n  number x = 0;\n");
+    for (int i = 0; i < hops; i++) source.append("{\n");
+    source.append("  number i = 0;\n")
+      .append("  while (i < ").append(iterations).append(") { x = x + 1; i = i + 1; }\n");
+    for (int i = 0; i < hops; i++) source.append("}\n");
+    return source.append("}\nrun();\n").toString();
+  }
+
+  /** Method calls on an instance, each one a lookup, a bind and a call. */
+  static String dispatch(int iterations) {
+    return "class Counter {\n"
+      + "  number n;\n"
+      + "  void Counter() { this.n = 0; }\n"
+      + "  number add(number d) { this.n = this.n + d; return this.n; }\n"
+      + "}\n"
+      + "Counter c = Counter();\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { c.add(1); i = i + 1; }\n";
+  }
+
+  static String concat(int iterations) {
+    return "string s = \"\";\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { s = s + \"ab\"; i = i + 1; }\n";
+  }
+
+  static String numeric(int iterations) {
+    return "number sum = 0;\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { sum = sum + i * i / (i + 1) - 3; i = i + 1; }\n";
+  }
+
+  /** Calls of a function that does nothing but return its argument. */
+  static String calls(int iterations) {
+    return "number id(number n) { return n; }\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { i = id(i) + 1; }\n";
+  }
+
+  /** Reads and writes a field of an instance, with no method call. */
+  static String fields(int iterations) {
+    return "class Point {\n"
+      + "  number x;\n"
+      + "  void Point() { this.x = 0; }\n"
+      + "}\n"
+      + "Point p = Point();\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { p.x = p.x + 1; i = i + 1; }\n";
+  }
+
+  /** A block with a local of its own in the loop body, so a scope on every iteration. */
+  static String blocks(int iterations) {
+    return "number sum = 0;\n"
+      + "number i = 0;\n"
+      + "while (i < " + iterations + ") { { number x = i; sum = sum + x; } i = i + 1; }\n";
+  }
+
+  /** Writes the programs and microbenchmark scripts, for inspection or to run with the CLI. */
+  public static void main(String[] args) throws IOException {
+    Path directory = Paths.get(args.length > 0 ? args[0] : "corpus");
+    Files.createDirectories(directory);
+    for (String size : new String[] {SMALL, MEDIUM, LARGE}) {
+      write(directory.resolve(size + ".kali"), program(size));
+    }
+    write(directory.resolve("hops4.kali"), hops(4, 100_000));
+    write(directory.resolve("dispatch.kali"), dispatch(100_000));
+    write(directory.resolve("concat.kali"), concat(1_000));
+    write(directory.resolve("numeric.kali"), numeric(100_000));
+    write(directory.resolve("calls.kali"), calls(100_000));
+    write(directory.resolve("fields.kali"), fields(100_000));
+    write(directory.resolve("blocks.kali"), blocks(100_000));
+  }
+
+  private static void write(Path file, String source) throws IOException {
+    Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,74 @@
+package kali;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each front-end step on its own, over the Corpus programs: every benchmark starts from the
+ * output of the step before, prepared once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FrontEndBenchmark {
+  @Param({Corpus.SMALL, Corpus.MEDIUM, Corpus.LARGE})
+  public String size;
+
+  private String source;
+  private List<Token> tokens;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    source = Corpus.program(size);
+    tokens = new Scanner(source).scanTokens();
+    statements = new Parser(tokens).parse();
+
+    // no context is bound on JMH threads, so the whole front-end is checked through KaliEngine
+    try {
+      KaliEngine.compile(source);
+    } catch (KaliScriptException error) {
+      throw new IllegalStateException("The " + size + " corpus does not compile.", error);
+    }
+    new Resolver().resolve(statements);
+  }
+
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens).parse();
+  }
+
+  @Benchmark
+  public Resolver resolve() {
+    Resolver resolver = new Resolver();
+    resolver.resolve(statements); // writes the scope distances onto the nodes
+    return resolver;
+  }
+
+  @Benchmark
+  public TypeChecker typeCheck() {
+    TypeChecker checker = new TypeChecker();
+    checker.check(statements);
+    return checker;
+  }
+}
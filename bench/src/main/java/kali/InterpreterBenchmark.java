@@ -0,0 +1,91 @@
+package kali;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Interpreter microbenchmarks: each runs one Corpus script, compiled once in setup, with fresh
+ * globals. Scores are per loop iteration, so they read as the cost of one variable access, method
+ * call and so on (plus the loop around it).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InterpreterBenchmark {
+  private static final int ITERATIONS = 10_000;
+  /** Fewer for concat, which copies the whole string every time. */
+  private static final int CONCAT_ITERATIONS = 1_000;
+
+  /** Only variableAccess depends on the scope distance, so only it runs once per value. */
+  @State(Scope.Benchmark)
+  public static class Hops {
+    @Param({"0", "2", "4", "8"})
+    public int hops;
+
+    private CompiledScript script;
+
+    @Setup
+    public void setUp() {
+      script = KaliEngine.compile(Corpus.hops(hops, ITERATIONS));
+    }
+  }
+
+  private CompiledScript dispatchScript;
+  private CompiledScript concatScript;
+  private CompiledScript numericScript;
+  private CompiledScript callsScript;
+
+  @Setup
+  public void setUp() {
+    dispatchScript = KaliEngine.compile(Corpus.dispatch(ITERATIONS));
+    concatScript = KaliEngine.compile(Corpus.concat(CONCAT_ITERATIONS));
+    numericScript = KaliEngine.compile(Corpus.numeric(ITERATIONS));
+    callsScript = KaliEngine.compile(Corpus.calls(ITERATIONS));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITERATIONS)
+  public void variableAccess(Hops state) {
+    state.script.run(Writer.nullWriter());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITERATIONS)
+  public void methodDispatch() {
+    dispatchScript.run(Writer.nullWriter());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CONCAT_ITERATIONS)
+  public void stringConcat() {
+    concatScript.run(Writer.nullWriter());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITERATIONS)
+  public void numericLoop() {
+    numericScript.run(Writer.nullWriter());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ITERATIONS)
+  public void callOverhead() {
+    callsScript.run(Writer.nullWriter());
+  }
+}
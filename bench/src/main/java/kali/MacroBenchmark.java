@@ -0,0 +1,145 @@
+package kali;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Whole programs, as opposed to the JMH microbenchmarks: runs every .kali file of a directory
+ * (bench/programs) a few times to warm up and then measures each run for wall time, bytes
+ * allocated and peak heap, and writes one row per program to macro.csv and macro.json.
+ *
+ * A program is compiled once and run with fresh globals, its output discarded, so compile time is
+ * not in the numbers. Allocation is counted for this thread only, which is the whole program unless
+ * it spawns tasks or uses parallel for. Peak heap is the sum of the heap pools' peaks since the run
+ * started, and so includes whatever garbage the collector had not got to yet.
+ *
+ * Usage: MacroBenchmark [programs directory] [results directory] [warmup runs] [measured runs]
+ */
+public final class MacroBenchmark {
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  private MacroBenchmark() {}
+
+  /** The measurements of one program, averaged over the measured runs; peak heap is the maximum. */
+  static final class Result {
+    final String program;
+    final int runs;
+    final double millis;
+    final long allocatedBytes;
+    final long peakHeapBytes;
+
+    Result(String program, int runs, double millis, long allocatedBytes, long peakHeapBytes) {
+      this.program = program;
+      this.runs = runs;
+      this.millis = millis;
+      this.allocatedBytes = allocatedBytes;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /** Megabytes allocated per second of running. */
+    double allocationRate() {
+      return millis == 0 ? 0 : allocatedBytes / (1024.0 * 1024.0) / (millis / 1000.0);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path programs = Paths.get(args.length > 0 ? args[0] : "programs");
+    Path results = Paths.get(args.length > 1 ? args[1] : "build/results");
+    int warmups = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(programs, "*.kali")) {
+      for (Path file : stream) files.add(file);
+    }
+    files.sort(null);
+    if (files.isEmpty()) throw new IllegalArgumentException("No .kali programs in " + programs + ".");
+
+    List<Result> measured = new ArrayList<>();
+    for (Path file : files) {
+      Result result = measure(file, warmups, runs);
+      System.out.println(String.format(Locale.ROOT, "%-20s %10.2f ms %12d B %10.1f MB/s %12d B peak",
+          result.program, result.millis, result.allocatedBytes, result.allocationRate(), result.peakHeapBytes));
+      measured.add(result);
+    }
+
+    Files.createDirectories(results);
+    writeCsv(results.resolve("macro.csv"), measured);
+    writeJson(results.resolve("macro.json"), measured);
+  }
+
+  static Result measure(Path file, int warmups, int runs) throws IOException {
+    String name = file.getFileName().toString().replaceFirst("\\.kali$", "");
+    CompiledScript script = KaliEngine.compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+    for (int i = 0; i < warmups; i++) script.run(Writer.nullWriter());
+
+    List<MemoryPoolMXBean> heap = heapPools();
+    long thread = Thread.currentThread().getId();
+    long nanos = 0;
+    long allocated = 0;
+    long peak = 0;
+    for (int i = 0; i < runs; i++) {
+      System.gc(); // so one run's garbage does not count towards the next one's peak
+      for (MemoryPoolMXBean pool : heap) pool.resetPeakUsage();
+
+      long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+      long started = System.nanoTime();
+      script.run(Writer.nullWriter());
+      nanos += System.nanoTime() - started;
+      allocated += THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+      long used = 0;
+      for (MemoryPoolMXBean pool : heap) used += pool.getPeakUsage().getUsed();
+      peak = Math.max(peak, used);
+    }
+    return new Result(name, runs, nanos / 1e6 / runs, allocated / runs, peak);
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    List<MemoryPoolMXBean> pools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) pools.add(pool);
+    }
+    return pools;
+  }
+
+  private static void writeCsv(Path file, List<Result> results) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+      out.println("program,runs,millis,allocated_bytes,allocation_mb_per_s,peak_heap_bytes");
+      for (Result result : results) {
+        out.println(String.format(Locale.ROOT, "%s,%d,%.3f,%d,%.1f,%d", result.program, result.runs,
+            result.millis, result.allocatedBytes, result.allocationRate(), result.peakHeapBytes));
+      }
+    }
+  }
+
+  private static void writeJson(Path file, List<Result> results) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+      out.println("[");
+      for (int i = 0; i < results.size(); i++) {
+        Result result = results.get(i);
+        out.print(String.format(Locale.ROOT,
+            "  {\"program\": \"%s\", \"runs\": %d, \"millis\": %.3f, \"allocatedBytes\": %d, "
+            + "\"allocationMBPerSecond\": %.1f, \"peakHeapBytes\": %d}",
+            result.program, result.runs, result.millis, result.allocatedBytes, result.allocationRate(),
+            result.peakHeapBytes));
+        out.println(i < results.size() - 1 ? "," : "");
+      }
+      out.println("]");
+    }
+  }
+}
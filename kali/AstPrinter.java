@@ -109,6 +109,29 @@ class AstPrinter implements Expr.Visitor<String> {
     // TODO Auto-generated method stub
     throw new UnsupportedOperationException("Unimplemented method 'visitSuperExpr'");
   }
-}
 
+  @Override
+  public String visitSpawnExpr(Expr.Spawn expr) {
+    return parenthesize("spawn", expr.call);
+  }
 
+  @Override
+  public String visitAwaitExpr(Expr.Await expr) {
+    return parenthesize("await", expr.value);
+  }
+
+  @Override
+  public String visitConstructExpr(Expr.Construct expr) {
+    return parenthesize(expr.type.lexeme, expr.arguments.toArray(new Expr[0]));
+  }
+
+  @Override
+  public String visitIndexExpr(Expr.Index expr) {
+    return parenthesize("[]", expr.object, expr.index);
+  }
+
+  @Override
+  public String visitIndexSetExpr(Expr.IndexSet expr) {
+    return parenthesize("[]=", expr.object, expr.index, expr.value);
+  }
+}
\ No newline at end of file
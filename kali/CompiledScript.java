@@ -0,0 +1,43 @@
+package kali;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A program that passed the front-end, see KaliEngine.
+ *
+ * Immutable: the AST, scope distances included, is only read when it runs, and every run gets
+ * its own Interpreter with its own globals. So one instance can run any number of times, concurrently.
+ */
+public final class CompiledScript {
+  private final List<Stmt> statements;
+
+  CompiledScript(List<Stmt> statements) {
+    this.statements = statements;
+  }
+
+  /** Runs the script, printing to standard output. */
+  public void run() {
+    run(new PrintWriter(System.out, true));
+  }
+
+  /**
+   * Runs the script with fresh globals.
+   * @param out Where print writes to; flushed when the run ends.
+   * @throws KaliScriptException If the script stops with a runtime error.
+   */
+  public void run(Writer out) {
+    PrintWriter printer = out instanceof PrintWriter ? (PrintWriter)out : new PrintWriter(out);
+    Interpreter interpreter = new Interpreter(printer);
+    try {
+      interpreter.run(statements, 0);
+    } catch (RuntimeError error) {
+      throw new KaliScriptException(Collections.singletonList(
+          error.getMessage() + "\n[line " + error.token.line + "]"));
+    } finally {
+      printer.flush();
+    }
+  }
+}
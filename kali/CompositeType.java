@@ -0,0 +1,47 @@
+package kali;
+
+import java.util.List;
+
+/**
+ * The TypeChecker's type for a compound annotation (see TypeToken), e.g. task<NUMBER> or NUMBER[].
+ *
+ * Unlike DataType and KaliClass these are created on every use, so they compare by value:
+ * checkInheritance treats two equal composite types as compatible.
+ */
+final class CompositeType {
+  final TokenType kind;
+  final List<Object> arguments;
+
+  CompositeType(TokenType kind, List<Object> arguments) {
+    this.kind = kind;
+    this.arguments = arguments;
+  }
+
+  /** The single type argument of task<T>, channel<T> and T[]. */
+  Object element() {
+    return arguments.get(0);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof CompositeType)) return false;
+    CompositeType type = (CompositeType)other;
+    return kind == type.kind && arguments.equals(type.arguments);
+  }
+
+  @Override
+  public int hashCode() {
+    return kind.hashCode() * 31 + arguments.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    if (kind == TokenType.TYPE_ARRAY) return element() + "[]";
+    StringBuilder name = new StringBuilder(TypeToken.keyword(kind, 0).lexeme).append('<');
+    for (int i = 0; i < arguments.size(); i++) {
+      if (i > 0) name.append(", ");
+      name.append(arguments.get(i));
+    }
+    return name.append('>').toString();
+  }
+}
@@ -1,22 +1,58 @@
 package kali;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A scope. The global scope is shared by every task of a program, so it is a concurrent map.
+ * Block and call scopes start out as plain HashMaps, used only by the thread running them, until
+ * they escape: a function or class declared in one captures it, and the closure can be spawned,
+ * sent or stored where another task calls it; a spawned closure then reads and assigns what it
+ * captured while its creator keeps declaring into the same scope. So capturing a scope share()s it
+ * first, as does a parallel for before its workers read it.
+ * Concurrent maps do not take null, which is why nil is stored as NIL.
+ */
 class Environment {
-  private final Map<String, Object> values = new HashMap<>();
+  private static final Object NIL = new Object();
+
+  private Map<String, Object> values;
   final Environment enclosing;
 
   Environment() {
+    if (KaliStats.ENABLED) KaliStats.ENVIRONMENTS.increment();
     enclosing = null;
+    values = new ConcurrentHashMap<>();
   }
 
   Environment(Environment enclosing) {
+    if (KaliStats.ENABLED) KaliStats.ENVIRONMENTS.increment();
     this.enclosing = enclosing;
+    values = new HashMap<>();
+  }
+
+  /**
+   * Moves this scope and the ones around it into concurrent maps, so other threads can use them
+   * from now on. Stops at the first one that already is: every scope around a shared one is shared.
+   */
+  void share() {
+    for (Environment scope = this; scope != null && !(scope.values instanceof ConcurrentHashMap); scope = scope.enclosing) {
+      scope.values = new ConcurrentHashMap<>(scope.values);
+    }
   }
 
   void define(String name, Object value){
-    values.put(name, value);
+    values.put(name, wrap(value));
+  }
+
+  /** Copy of the names defined directly in this scope. */
+  Map<String, Object> values() {
+    Map<String, Object> copy = new HashMap<>();
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      copy.put(entry.getKey(), unwrap(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(copy);
   }
 
   boolean hasCurrent(String name) {
@@ -24,7 +60,7 @@ class Environment {
   }
 
   Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+    return unwrap(ancestor(distance).values.get(name));
   }
 
   Environment ancestor(int distance) {
@@ -37,13 +73,12 @@ class Environment {
   }
 
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    ancestor(distance).values.put(name.lexeme, wrap(value));
   }
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)){
-      return values.get(name.lexeme);
-    }
+    Object value = values.get(name.lexeme);
+    if (value != null) return unwrap(value);
 
     if (enclosing != null) return enclosing.get(name);
 
@@ -51,10 +86,7 @@ class Environment {
   }
 
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
+    if (values.replace(name.lexeme, wrap(value)) != null) return;
 
     //if the nevironemtn is an inner (not global) then assign every global variable inside the
     if (enclosing != null) {
@@ -65,4 +97,12 @@ class Environment {
     throw new RuntimeError(name,
         "Undefined variable '" + name.lexeme + "'.");
   }
-}
\ No newline at end of file
+
+  private static Object wrap(Object value) {
+    return value == null ? NIL : value;
+  }
+
+  private static Object unwrap(Object value) {
+    return value == NIL ? null : value;
+  }
+}
@@ -3,7 +3,35 @@ package kali;
 import kali.Token;
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr {
+  // Node kinds.
+  static final byte ASSIGN = 0;
+  static final byte BINARY = 1;
+  static final byte CALL = 2;
+  static final byte GET = 3;
+  static final byte SET = 4;
+  static final byte THIS = 5;
+  static final byte SUPER = 6;
+  static final byte GROUPING = 7;
+  static final byte LITERAL = 8;
+  static final byte LOGICAL = 9;
+  static final byte UNARY = 10;
+  static final byte UNARY_POST = 11;
+  static final byte VARIABLE = 12;
+  static final byte SPAWN = 13;
+  static final byte AWAIT = 14;
+  static final byte CONSTRUCT = 15;
+  static final byte INDEX = 16;
+  static final byte INDEX_SET = 17;
+
+  /** Which of the node classes this is, one of the kinds above. */
+  final byte kind;
+
+  Expr(byte kind) {
+    this.kind = kind;
+    if (KaliStats.ENABLED) KaliStats.NODES.increment();
+  }
+
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -18,9 +46,28 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitUnaryPostExpr(UnaryPost expr);
     R visitVariableExpr(Variable expr);
+    R visitSpawnExpr(Spawn expr);
+    R visitAwaitExpr(Await expr);
+    R visitConstructExpr(Construct expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
   }
-  static class Assign extends Expr {
+
+  /** The depth of a variable that is not in any local scope. */
+  static final int GLOBAL = -1;
+
+  /** An expression naming a variable, which the Resolver binds to a scope. */
+  abstract static sealed class Resolvable extends Expr {
+    Resolvable(byte kind) {
+      super(kind);
+    }
+
+    /** How many environments out from the current one the variable lives, or GLOBAL; set by the Resolver. */
+    int depth = GLOBAL;
+  }
+  static final class Assign extends Resolvable {
     Assign(Token name, Expr value) {
+      super(ASSIGN);
       this.name = name;
       this.value = value;
     }
@@ -33,8 +80,9 @@ abstract class Expr {
     final Token name;
     final Expr value;
   }
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
+      super(BINARY);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -49,8 +97,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class Call extends Expr {
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
+      super(CALL);
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
@@ -65,8 +114,9 @@ abstract class Expr {
     final Token paren;
     final List<Expr> arguments;
   }
-  static class Get extends Expr {
+  static final class Get extends Expr {
     Get(Expr object, Token name) {
+      super(GET);
       this.object = object;
       this.name = name;
     }
@@ -79,8 +129,9 @@ abstract class Expr {
     final Expr object;
     final Token name;
   }
-  static class Set extends Expr {
+  static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
+      super(SET);
       this.object = object;
       this.name = name;
       this.value = value;
@@ -95,8 +146,9 @@ abstract class Expr {
     final Token name;
     final Expr value;
   }
-  static class This extends Expr {
+  static final class This extends Resolvable {
     This(Token keyword) {
+      super(THIS);
       this.keyword = keyword;
     }
 
@@ -107,8 +159,9 @@ abstract class Expr {
 
     final Token keyword;
   }
-  static class Super extends Expr {
+  static final class Super extends Resolvable {
     Super(Token keyword, Token method) {
+      super(SUPER);
       this.keyword = keyword;
       this.method = method;
     }
@@ -121,8 +174,9 @@ abstract class Expr {
     final Token keyword;
     final Token method;
   }
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -133,8 +187,9 @@ abstract class Expr {
 
     final Expr expression;
   }
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -145,8 +200,9 @@ abstract class Expr {
 
     final Object value;
   }
-  static class Logical extends Expr {
+  static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
+      super(LOGICAL);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -161,8 +217,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
     Unary(Token operator, Expr right) {
+      super(UNARY);
       this.operator = operator;
       this.right = right;
     }
@@ -175,8 +232,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class UnaryPost extends Expr {
+  static final class UnaryPost extends Expr {
     UnaryPost(Expr left, Token operator) {
+      super(UNARY_POST);
       this.left = left;
       this.operator = operator;
     }
@@ -189,8 +247,9 @@ abstract class Expr {
     final Expr left;
     final Token operator;
   }
-  static class Variable extends Expr {
+  static final class Variable extends Resolvable {
     Variable(Token name) {
+      super(VARIABLE);
       this.name = name;
     }
 
@@ -201,6 +260,89 @@ abstract class Expr {
 
     final Token name;
   }
+  static final class Spawn extends Expr {
+    Spawn(Token keyword, Expr.Call call) {
+      super(SPAWN);
+      this.keyword = keyword;
+      this.call = call;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSpawnExpr(this);
+    }
+
+    final Token keyword;
+    final Expr.Call call;
+  }
+  static final class Await extends Expr {
+    Await(Token keyword, Expr value) {
+      super(AWAIT);
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAwaitExpr(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+  }
+  static final class Construct extends Expr {
+    Construct(Token type, Token paren, List<Expr> arguments) {
+      super(CONSTRUCT);
+      this.type = type;
+      this.paren = paren;
+      this.arguments = arguments;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitConstructExpr(this);
+    }
+
+    final Token type;
+    final Token paren;
+    final List<Expr> arguments;
+  }
+  static final class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      super(INDEX);
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+  static final class IndexSet extends Expr {
+    IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+      super(INDEX_SET);
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+  }
 
- abstract <R> R accept(Visitor<R> visitor);
+  abstract <R> R accept(Visitor<R> visitor);
 }
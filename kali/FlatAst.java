@@ -0,0 +1,777 @@
+package kali;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A program's AST flattened into an arena of primitive arrays, instead of a graph of node and Token
+ * objects: a few arrays for any number of nodes, with every name, string and number once in a
+ * constant pool.
+ *
+ * Nodes are numbered in post-order (children before their parent), and for node n:
+ * - kinds[n] is its kind, Expr.kind or Stmt.kind (see GenerateAst); which of the two follows from
+ *   the field that refers to the node;
+ * - operands[starts[n] .. starts[n + 1]] are its fields in the order of the Expr and Stmt classes,
+ *   a child as its node number (NONE when missing), a list as its size and then the elements, a token
+ *   as its type's ordinal, lexeme, literal (constants) and line, a compound type as -1 - ordinal, its
+ *   arguments and line, and after the fields of a variable, assignment, this and super the scope
+ *   distance of the Resolver (Expr.GLOBAL for a global).
+ * roots are the top-level statements. A CRC-32 of all of it follows, see read.
+ *
+ * This is the storage format of ProgramCache only: the passes and the Interpreter work on the Expr
+ * and Stmt objects. decode builds the top-level statements of a cached program, but a function body
+ * stays in the arena until it is first used (see Body).
+ */
+final class FlatAst {
+  /** A missing child, or a token without a literal. */
+  static final int NONE = -1;
+
+  // Constant tags, for writeTo.
+  private static final byte NUMBER = 1, STRING = 2, TRUE = 3, FALSE = 4;
+
+  private final int[] roots;
+  private final byte[] kinds;
+  private final int[] starts;
+  private final int[] operands;
+  private final Object[] constants;
+
+  private FlatAst(int[] roots, byte[] kinds, int[] starts, int[] operands, Object[] constants) {
+    this.roots = roots;
+    this.kinds = kinds;
+    this.starts = starts;
+    this.operands = operands;
+    this.constants = constants;
+  }
+
+  /** Flattens resolved statements. */
+  static FlatAst encode(List<Stmt> statements) {
+    return new Encoder().program(statements);
+  }
+
+  /**
+   * Builds the top-level statements, scope distances included. Function and method bodies are
+   * left in the arena, as Body lists.
+   */
+  List<Stmt> decode() {
+    Decoder decoder = new Decoder();
+    List<Stmt> statements = new ArrayList<>(roots.length);
+    for (int root : roots) statements.add(decoder.stmt(root));
+    return statements;
+  }
+
+  /**
+   * The statements of a function, built now if they are still in the arena. KaliFunction calls
+   * this instead of reading declaration.body, so calls always run a plain list.
+   */
+  static List<Stmt> body(Stmt.Function function) {
+    List<Stmt> body = function.body;
+    return body instanceof Body ? ((Body)body).statements() : body;
+  }
+
+  /** Whether reading the function's body builds nothing, because it is not in the arena (any more). */
+  static boolean isBuilt(Stmt.Function function) {
+    return !(function.body instanceof Body) || ((Body)function.body).statements != null;
+  }
+
+  /**
+   * The body of a decoded function, built from the arena the first time it is read. A run of a
+   * large program calls only some of its functions, and the rest never become objects; once every
+   * body is built, nothing refers to the arena any more. Bodies can be first read by any task, so
+   * building one is synchronized.
+   */
+  static final class Body extends AbstractList<Stmt> {
+    private FlatAst arena;
+    /** Where the body's list starts in the operands. */
+    private final int at;
+    private volatile List<Stmt> statements;
+
+    private Body(FlatAst arena, int at) {
+      this.arena = arena;
+      this.at = at;
+    }
+
+    List<Stmt> statements() {
+      List<Stmt> built = statements;
+      if (built != null) return built;
+
+      synchronized (this) {
+        if (statements == null) {
+          statements = arena.new Decoder().stmtsAt(at);
+          arena = null;
+        }
+        return statements;
+      }
+    }
+
+    @Override
+    public Stmt get(int index) {
+      return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+      return statements().size();
+    }
+
+    @Override
+    public Iterator<Stmt> iterator() {
+      return statements().iterator();
+    }
+  }
+
+  // --- Storage ---
+
+  /** Writes the arrays and constants, big-endian, and their checksum, for read. */
+  void writeTo(OutputStream stream) throws IOException {
+    CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+    DataOutputStream out = new DataOutputStream(checked);
+    out.writeInt(constants.length);
+    for (Object constant : constants) {
+      if (constant instanceof Double) {
+        out.writeByte(NUMBER);
+        out.writeDouble((Double)constant);
+      } else if (constant instanceof String) {
+        byte[] utf8 = ((String)constant).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(STRING);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+      } else {
+        out.writeByte((Boolean)constant ? TRUE : FALSE);
+      }
+    }
+
+    out.writeInt(kinds.length);
+    out.write(kinds);
+    for (int[] array : new int[][] {roots, starts, operands}) {
+      out.writeInt(array.length);
+      for (int value : array) out.writeInt(value);
+    }
+    out.flush();
+    new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+  }
+
+  /**
+   * Reads what writeTo wrote, from the buffer's position on. Bodies are decoded long after the
+   * cache file was read, so a damaged file has to be caught here: it fails the checksum, with a
+   * RuntimeException.
+   */
+  static FlatAst read(ByteBuffer buffer) {
+    int start = buffer.position();
+    Object[] constants = new Object[buffer.getInt()];
+    for (int i = 0; i < constants.length; i++) {
+      byte tag = buffer.get();
+      switch (tag) {
+        case NUMBER: constants[i] = buffer.getDouble(); break;
+        case STRING: {
+          byte[] utf8 = new byte[buffer.getInt()];
+          buffer.get(utf8);
+          constants[i] = new String(utf8, StandardCharsets.UTF_8);
+          break;
+        }
+        case TRUE: constants[i] = Boolean.TRUE; break;
+        case FALSE: constants[i] = Boolean.FALSE; break;
+        default: throw new IllegalStateException("Unknown constant tag " + tag + ".");
+      }
+    }
+
+    byte[] kinds = new byte[buffer.getInt()];
+    buffer.get(kinds);
+    int[] roots = ints(buffer);
+    int[] starts = ints(buffer);
+    int[] operands = ints(buffer);
+    if (starts.length != kinds.length + 1) throw new IllegalStateException("Inconsistent node arrays.");
+
+    CRC32 crc = new CRC32();
+    ByteBuffer written = buffer.duplicate();
+    written.position(start).limit(buffer.position());
+    crc.update(written);
+    if (buffer.getLong() != crc.getValue()) throw new IllegalStateException("Checksum mismatch.");
+    return new FlatAst(roots, kinds, starts, operands, constants);
+  }
+
+  private static int[] ints(ByteBuffer buffer) {
+    int[] array = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(array); // in one go, rather than an int at a time
+    buffer.position(buffer.position() + array.length * Integer.BYTES);
+    return array;
+  }
+
+  /** A growable int array. */
+  private static final class Ints {
+    int[] values = new int[64];
+    int size = 0;
+
+    void add(int value) {
+      if (size == values.length) values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    /** Moves the values from index on to the end of another Ints. */
+    void moveTo(Ints other, int from) {
+      for (int i = from; i < size; i++) other.add(values[i]);
+      size = from;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+  /**
+   * Visits the tree depth-first. A node's operands are collected on a scratch stack while its
+   * children are encoded (each one clears what it pushed), and moved to the arena when it is done,
+   * so they end up contiguous.
+   */
+  private static final class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Ints kinds = new Ints();
+    private final Ints starts = new Ints();
+    private final Ints operands = new Ints();
+    private final Ints scratch = new Ints();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Object> constants = new ArrayList<>();
+
+    FlatAst program(List<Stmt> statements) {
+      int[] roots = new int[statements.size()];
+      for (int i = 0; i < roots.length; i++) roots[i] = encode(statements.get(i));
+      starts.add(operands.size);
+
+      byte[] kindBytes = new byte[kinds.size];
+      for (int i = 0; i < kindBytes.length; i++) kindBytes[i] = (byte)kinds.values[i];
+      return new FlatAst(roots, kindBytes, starts.toArray(), operands.toArray(), constants.toArray());
+    }
+
+    private int encode(Expr expr) {
+      if (expr == null) return NONE;
+      int mark = scratch.size;
+      scratch.add(expr.kind);
+      expr.accept(this);
+      return finish(mark);
+    }
+
+    private int encode(Stmt stmt) {
+      if (stmt == null) return NONE;
+      int mark = scratch.size;
+      scratch.add(stmt.kind);
+      stmt.accept(this);
+      return finish(mark);
+    }
+
+    /** Appends the node whose kind and operands are on the scratch stack from mark on. */
+    private int finish(int mark) {
+      int node = kinds.size;
+      kinds.add(scratch.values[mark]);
+      starts.add(operands.size);
+      scratch.moveTo(operands, mark + 1);
+      scratch.size = mark;
+      return node;
+    }
+
+    // --- Operands ---
+
+    private void child(Expr expr) {
+      scratch.add(encode(expr));
+    }
+
+    private void child(Stmt stmt) {
+      scratch.add(encode(stmt));
+    }
+
+    private void exprs(List<? extends Expr> exprs) {
+      scratch.add(exprs.size());
+      for (Expr expr : exprs) child(expr);
+    }
+
+    private void stmts(List<? extends Stmt> stmts) {
+      scratch.add(stmts.size());
+      for (Stmt stmt : stmts) child(stmt);
+    }
+
+    private int constant(Object value) {
+      Integer index = constantIndex.get(value);
+      if (index == null) {
+        index = constants.size();
+        constants.add(value);
+        constantIndex.put(value, index);
+      }
+      return index;
+    }
+
+    private void value(Object value) {
+      if (value != null && !(value instanceof Double || value instanceof String || value instanceof Boolean)) {
+        throw new IllegalArgumentException("Cannot flatten literal " + value + ".");
+      }
+      scratch.add(value == null ? NONE : constant(value));
+    }
+
+    private void token(Token token) {
+      if (token instanceof TypeToken) {
+        scratch.add(-1 - token.type.ordinal());
+        tokens(((TypeToken)token).arguments);
+        scratch.add(token.line);
+        return;
+      }
+      scratch.add(token.type.ordinal());
+      scratch.add(constant(token.lexeme));
+      value(token.literal);
+      scratch.add(token.line);
+    }
+
+    private void tokens(List<Token> tokens) {
+      scratch.add(tokens.size());
+      for (Token token : tokens) token(token);
+    }
+
+    private void depth(Expr.Resolvable expr) {
+      scratch.add(expr.depth);
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      token(expr.name);
+      child(expr.value);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      child(expr.left);
+      token(expr.operator);
+      child(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      child(expr.callee);
+      token(expr.paren);
+      exprs(expr.arguments);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      child(expr.object);
+      token(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+      token(expr.keyword);
+      child(expr.call);
+      return null;
+    }
+
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+      token(expr.keyword);
+      child(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitConstructExpr(Expr.Construct expr) {
+      token(expr.type);
+      token(expr.paren);
+      exprs(expr.arguments);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+      child(expr.object);
+      token(expr.bracket);
+      child(expr.index);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+      child(expr.object);
+      token(expr.bracket);
+      child(expr.index);
+      child(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      child(expr.object);
+      token(expr.name);
+      child(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      token(expr.keyword);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      token(expr.keyword);
+      token(expr.method);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      child(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      value(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      child(expr.left);
+      token(expr.operator);
+      child(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      token(expr.operator);
+      child(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryPostExpr(Expr.UnaryPost expr) {
+      child(expr.left);
+      token(expr.operator);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      token(expr.name);
+      depth(expr);
+      return null;
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      stmts(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      token(stmt.name);
+      child(stmt.superclass);
+      stmts(stmt.methods);
+      stmts(stmt.fields);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      child(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+      token(stmt.keyword);
+      token(stmt.path);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      token(stmt.name);
+      token(stmt.type);
+      tokens(stmt.params);
+      tokens(stmt.paramTypes);
+      stmts(stmt.body); // last, so the Decoder can leave it for a Body
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      child(stmt.condition);
+      child(stmt.thenBranch);
+      child(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      child(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      token(stmt.keyword);
+      child(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      token(stmt.name);
+      token(stmt.type);
+      child(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      child(stmt.condition);
+      child(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+      token(stmt.keyword);
+      token(stmt.variable);
+      child(stmt.from);
+      child(stmt.to);
+      tokens(stmt.operators);
+      exprs(stmt.reductions);
+      child(stmt.body);
+      return null;
+    }
+  }
+
+  /** Rebuilds nodes, reading each node's operands in the order the Encoder wrote them. */
+  private final class Decoder {
+    private final TokenType[] tokenTypes = TokenType.values();
+    /** The next operand of the node being decoded. */
+    private int at;
+
+    private int next() {
+      return operands[at++];
+    }
+
+    private Object value() {
+      int index = next();
+      return index == NONE ? null : constants[index];
+    }
+
+    private Token token() {
+      int ordinal = next();
+      if (ordinal < 0) {
+        TokenType type = tokenTypes[-1 - ordinal];
+        List<Token> arguments = tokens();
+        return new TypeToken(TypeToken.keyword(type, next()), arguments);
+      }
+      TokenType type = tokenTypes[ordinal];
+      String lexeme = (String)constants[next()];
+      Object literal = value();
+      return new Token(type, lexeme, literal, next());
+    }
+
+    private List<Token> tokens() {
+      int size = next();
+      List<Token> tokens = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) tokens.add(token());
+      return tokens;
+    }
+
+    private <E extends Expr.Resolvable> E resolved(E expr) {
+      expr.depth = next();
+      return expr;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Expr> List<E> exprs() {
+      int size = next();
+      List<E> exprs = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) exprs.add((E)expr(next()));
+      return exprs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Stmt> List<S> stmts() {
+      int size = next();
+      List<S> stmts = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) stmts.add((S)stmt(next()));
+      return stmts;
+    }
+
+    /** The statement list whose size is the operand at index. */
+    List<Stmt> stmtsAt(int index) {
+      at = index;
+      return stmts();
+    }
+
+    Expr expr(int node) {
+      if (node == NONE) return null;
+      int outer = at;
+      at = starts[node];
+      try {
+        return buildExpr(kinds[node]);
+      } finally {
+        at = outer;
+      }
+    }
+
+    Stmt stmt(int node) {
+      if (node == NONE) return null;
+      int outer = at;
+      at = starts[node];
+      try {
+        return buildStmt(kinds[node]);
+      } finally {
+        at = outer;
+      }
+    }
+
+    private Expr buildExpr(byte kind) {
+      switch (kind) {
+        case Expr.ASSIGN: {
+          Token name = token();
+          return resolved(new Expr.Assign(name, expr(next())));
+        }
+        case Expr.BINARY: {
+          Expr left = expr(next());
+          Token operator = token();
+          return new Expr.Binary(left, operator, expr(next()));
+        }
+        case Expr.CALL: {
+          Expr callee = expr(next());
+          Token paren = token();
+          return new Expr.Call(callee, paren, exprs());
+        }
+        case Expr.GET: {
+          Expr object = expr(next());
+          return new Expr.Get(object, token());
+        }
+        case Expr.SET: {
+          Expr object = expr(next());
+          Token name = token();
+          return new Expr.Set(object, name, expr(next()));
+        }
+        case Expr.THIS: return resolved(new Expr.This(token()));
+        case Expr.SUPER: {
+          Token keyword = token();
+          return resolved(new Expr.Super(keyword, token()));
+        }
+        case Expr.GROUPING: return new Expr.Grouping(expr(next()));
+        case Expr.LITERAL: return new Expr.Literal(value());
+        case Expr.LOGICAL: {
+          Expr left = expr(next());
+          Token operator = token();
+          return new Expr.Logical(left, operator, expr(next()));
+        }
+        case Expr.UNARY: {
+          Token operator = token();
+          return new Expr.Unary(operator, expr(next()));
+        }
+        case Expr.UNARY_POST: {
+          Expr left = expr(next());
+          return new Expr.UnaryPost(left, token());
+        }
+        case Expr.VARIABLE: return resolved(new Expr.Variable(token()));
+        case Expr.SPAWN: {
+          Token keyword = token();
+          return new Expr.Spawn(keyword, (Expr.Call)expr(next()));
+        }
+        case Expr.AWAIT: {
+          Token keyword = token();
+          return new Expr.Await(keyword, expr(next()));
+        }
+        case Expr.CONSTRUCT: {
+          Token type = token();
+          Token paren = token();
+          return new Expr.Construct(type, paren, exprs());
+        }
+        case Expr.INDEX: {
+          Expr object = expr(next());
+          Token bracket = token();
+          return new Expr.Index(object, bracket, expr(next()));
+        }
+        case Expr.INDEX_SET: {
+          Expr object = expr(next());
+          Token bracket = token();
+          Expr index = expr(next());
+          return new Expr.IndexSet(object, bracket, index, expr(next()));
+        }
+        default: throw new IllegalStateException("Unknown expression kind " + kind + ".");
+      }
+    }
+
+    private Stmt buildStmt(byte kind) {
+      switch (kind) {
+        case Stmt.BLOCK: return new Stmt.Block(stmts());
+        case Stmt.CLASS: {
+          Token name = token();
+          Expr.Variable superclass = (Expr.Variable)expr(next());
+          List<Stmt.Function> methods = stmts();
+          List<Stmt.Var> fields = stmts();
+          return new Stmt.Class(name, superclass, methods, fields);
+        }
+        case Stmt.EXPRESSION: return new Stmt.Expression(expr(next()));
+        case Stmt.IMPORT: {
+          Token keyword = token();
+          return new Stmt.Import(keyword, token());
+        }
+        case Stmt.FUNCTION: {
+          Token name = token();
+          Token type = token();
+          List<Token> params = tokens();
+          List<Token> paramTypes = tokens();
+          return new Stmt.Function(name, type, params, paramTypes, new Body(FlatAst.this, at));
+        }
+        case Stmt.IF: {
+          Expr condition = expr(next());
+          Stmt thenBranch = stmt(next());
+          return new Stmt.If(condition, thenBranch, stmt(next()));
+        }
+        case Stmt.PRINT: return new Stmt.Print(expr(next()));
+        case Stmt.RETURN: {
+          Token keyword = token();
+          return new Stmt.Return(keyword, expr(next()));
+        }
+        case Stmt.VAR: {
+          Token name = token();
+          Token type = token();
+          return new Stmt.Var(name, type, expr(next()));
+        }
+        case Stmt.WHILE: {
+          Expr condition = expr(next());
+          return new Stmt.While(condition, stmt(next()));
+        }
+        case Stmt.PARALLEL_FOR: {
+          Token keyword = token();
+          Token variable = token();
+          Expr from = expr(next());
+          Expr to = expr(next());
+          List<Token> operators = tokens();
+          List<Expr.Variable> reductions = exprs();
+          return new Stmt.ParallelFor(keyword, variable, from, to, operators, reductions, stmt(next()));
+        }
+        default: throw new IllegalStateException("Unknown statement kind " + kind + ".");
+      }
+    }
+  }
+}
@@ -1,9 +1,16 @@
 package kali;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import kali.Expr.Logical;
 import kali.Expr.UnaryPost;
@@ -11,48 +18,175 @@ import kali.Expr.Variable;
 import kali.Stmt.While;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-  private Environment environment = new Environment();
-  final Environment globals = new Environment();
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  /** Ranges shorter than this are never split; see RangeTask. */
+  private static final long MIN_SPLIT = 16;
+  /** A worker stops splitting once it has this many forked ranges nobody has stolen yet. */
+  private static final int MAX_SURPLUS = 3;
+
+  private Environment environment;
+  final Environment globals;
+  /** Where print goes. */
+  final PrintWriter out;
+  /** Where warnings go. */
+  final PrintWriter err;
+  /** Tasks spawned by this program, shared with the interpreters that run them; see run. */
+  private final Queue<KaliTask> tasks;
+  /** The Kali call stack the Profiler samples, or null when not profiling. */
+  private Profiler.Stack stack = null;
+
+  // Where snapshot() writes to; see snapshotTo.
+  private Path snapshotFile = null;
+  private byte[] snapshotSourceHash = null;
+  private List<Stmt> program = null;
+  private int topLevelIndex = 0;
 
   //Lox implementation to show foreign/in-built methods
   Interpreter() {
+    this(new PrintWriter(System.out, true));
+  }
+
+  Interpreter(PrintWriter out) {
+    this(out, new PrintWriter(System.err, true));
+  }
+
+  /**
+   * An interpreter for resolved programs; the Resolver keeps the scope distances on the nodes,
+   * and since they are only read, several runs of a program can share it (see CompiledScript).
+   * @param out Destination of print.
+   * @param err Destination of warnings, such as a snapshot that could not be written.
+   */
+  Interpreter(PrintWriter out, PrintWriter err) {
+    this.globals = new Environment();
+    this.out = out;
+    this.err = err;
+    this.tasks = new ConcurrentLinkedQueue<>();
     environment = globals;
-    globals.define("clock", new KaliCallable() {
-      @Override
-      public int arity() { return 0; }
+    for (KaliNative function : KaliNative.BUILTINS) {
+      globals.define(function.name, function);
+    }
+  }
 
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return (double)System.currentTimeMillis() / 1000.0;
-      }
+  /**
+   * An interpreter for a spawned task: same program, globals and output, but its own
+   * current environment, since that changes with every call and block.
+   */
+  private Interpreter(Interpreter parent) {
+    this.globals = parent.globals;
+    this.out = parent.out;
+    this.err = parent.err;
+    this.tasks = parent.tasks;
+    this.stack = parent.stack == null ? null : parent.stack.fork();
+    environment = globals;
+  }
 
-      @Override
-      public String toString() { return "<native fn>"; }
-    });
+  /** Makes this interpreter keep the stack the profiler samples; see Profiler. */
+  void profile(Profiler.Stack stack) {
+    this.stack = stack;
+  }
 
-    globals.define("print", new KaliCallable() {
-      @Override
-      public int arity() { return 1; }
+  void interpret(List<Stmt> statements) {
+    interpret(statements, 0);
+  }
 
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        System.out.println(stringify(arguments.get(0)));
-        return null;
-      }
+  /**
+   * Runs the top-level statements of a program starting at the given index,
+   * which is where a restored Snapshot picks up.
+   */
+  void interpret(List<Stmt> statements, int from) {
+    try {
+      run(statements, from);
+    } catch (RuntimeError error) {
+      Kali.runtimeError(error);
+    }
+  }
 
-      @Override
-      public String toString() { return "<native fn>"; }
-    });
+  /**
+   * Like interpret, but leaves a RuntimeError to the caller instead of reporting it.
+   * Concurrency is structured: the program is not done before every task it spawned is, and an
+   * error in a task nobody awaited is the program's error.
+   */
+  void run(List<Stmt> statements, int from) {
+    PhaseTimer phase = PhaseTimer.start("interpret");
+    boolean finished = false;
+    try {
+      for (int i = from; i < statements.size(); i++) {
+        topLevelIndex = i;
+        execute(statements.get(i));
+      }
+      finished = true;
+    } catch (RuntimeError error) {
+      if (KaliEvents.ENABLED) KaliEvents.RuntimeErrorEvent.emit(error);
+      throw error;
+    } finally {
+      RuntimeError failure = joinTasks();
+      if (phase != null) phase.stop();
+      if (finished && failure != null) {
+        if (KaliEvents.ENABLED) KaliEvents.RuntimeErrorEvent.emit(failure);
+        throw failure;
+      }
+    }
   }
 
-  void interpret(List<Stmt> statements) {
+  /**
+   * Runs the next top-level statements of a program that arrives in pieces (see StreamingPipeline),
+   * reporting a RuntimeError like interpret. Tasks keep running across pieces, since a later piece
+   * may await them; finish waits for them at the end.
+   * @return false if a RuntimeError stopped it
+   */
+  boolean interpretPart(List<Stmt> statements) {
+    PhaseTimer phase = PhaseTimer.start("interpret");
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
+      return true;
     } catch (RuntimeError error) {
+      if (KaliEvents.ENABLED) KaliEvents.RuntimeErrorEvent.emit(error);
       Kali.runtimeError(error);
+      return false;
+    } finally {
+      if (phase != null) phase.stop();
+    }
+  }
+
+  /**
+   * The end of a program run with interpretPart: waits for its tasks and reports the first error
+   * of one nobody awaited, unless the program already stopped with an error of its own.
+   */
+  void finish(boolean failed) {
+    RuntimeError failure = joinTasks();
+    if (!failed && failure != null) {
+      if (KaliEvents.ENABLED) KaliEvents.RuntimeErrorEvent.emit(failure);
+      Kali.runtimeError(failure);
+    }
+  }
+
+  /** Waits for all spawned tasks, including those spawned meanwhile; returns the first unseen error. */
+  private RuntimeError joinTasks() {
+    RuntimeError first = null;
+    for (KaliTask task; (task = tasks.poll()) != null; ) {
+      RuntimeError failure = task.join();
+      if (first == null) first = failure;
+    }
+    return first;
+  }
+
+  /**
+   * Makes snapshot() write the globals of this program to the given file.
+   * Without this, snapshot() does nothing (e.g. in the REPL).
+   */
+  void snapshotTo(Path file, byte[] sourceHash, List<Stmt> program) {
+    this.snapshotFile = file;
+    this.snapshotSourceHash = sourceHash;
+    this.program = program;
+  }
+
+  void snapshot() {
+    if (snapshotFile == null) return;
+    try {
+      Snapshot.write(snapshotFile, snapshotSourceHash, program, topLevelIndex + 1, globals);
+    } catch (IOException | IllegalArgumentException error) {
+      err.println("Warning: snapshot not written: " + error.getMessage());
     }
   }
 
@@ -73,6 +207,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment.define("super", superclass);
     }
 
+    environment.share(); // captured by the methods, like a function's closure
     Map<String, KaliFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
       boolean isInitializer = method.name.lexeme.equals(stmt.name.lexeme);
@@ -97,9 +232,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
+    int distance = expr.depth;
     KaliClass superclass = (KaliClass)environment.getAt(distance, "super");
     KaliInstance object = (KaliInstance)environment.getAt(distance - 1, "this"); //this is inbound right insiide the env we store super, so manually insert
+    if (KaliStats.ENABLED) KaliStats.METHOD_LOOKUPS.increment();
     KaliFunction method = superclass.findMethod(expr.method.lexeme);
 
     if (method == null) {
@@ -120,15 +256,41 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null; //uninitialized will be null
   }
 
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    return null; // imported modules have already run, see ModuleLoader
+  }
+
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
+    List<Object> arguments = evaluateArguments(expr.arguments);
+    KaliCallable function = callable(expr, callee, arguments);
+    if (KaliStats.ENABLED) KaliStats.CALLS.increment();
+
+    if (stack != null) {
+      stack.line(expr.paren.line);
+      stack.push(Profiler.name(function), function instanceof KaliFunction
+        ? ((KaliFunction)function).declaration.name.line : expr.paren.line);
+    }
+    try {
+      return function.call(this, arguments);
+    } catch (KaliNative.Failure failure) {
+      throw new RuntimeError(expr.paren, failure.getMessage());
+    } finally {
+      if (stack != null) stack.pop();
+    }
+  }
 
+  private List<Object> evaluateArguments(List<Expr> exprs) {
     List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
+    for (Expr argument : exprs) {
       arguments.add(evaluate(argument));
     }
+    return arguments;
+  }
 
+  private KaliCallable callable(Expr.Call expr, Object callee, List<Object> arguments) {
     if (!(callee instanceof KaliCallable)) {
       throw new RuntimeError(expr.paren,
         "Can only call functions and classes.");
@@ -140,7 +302,150 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           function.arity() + " arguments but got " +
           arguments.size() + ".");
     }
-    return function.call(this, arguments);
+    return function;
+  }
+
+  /**
+   * The callee and arguments are evaluated right here, only the call itself runs on the new thread
+   * (a virtual one where available), with an interpreter of its own.
+   */
+  @Override
+  public Object visitSpawnExpr(Expr.Spawn expr) {
+    Object callee = evaluate(expr.call.callee);
+    List<Object> arguments = evaluateArguments(expr.call.arguments);
+    KaliCallable function = callable(expr.call, callee, arguments);
+
+    if (KaliStats.ENABLED) KaliStats.CALLS.increment();
+    KaliTask task = new KaliTask(expr.keyword);
+    Interpreter forked = new Interpreter(this);
+    tasks.add(task);
+    KaliContext.newThread(() -> task.run(() -> {
+      try {
+        if (forked.stack != null) forked.stack.push(Profiler.name(function), expr.call.paren.line);
+        return function.call(forked, arguments);
+      } catch (KaliNative.Failure failure) {
+        throw new RuntimeError(expr.call.paren, failure.getMessage());
+      } finally {
+        if (forked.stack != null) forked.stack.close();
+      }
+    })).start();
+    return task;
+  }
+
+  @Override
+  public Object visitAwaitExpr(Expr.Await expr) {
+    Object task = evaluate(expr.value);
+    if (!(task instanceof KaliTask)) {
+      throw new RuntimeError(expr.keyword, "Can only await a task.");
+    }
+    return ((KaliTask)task).await(expr.keyword);
+  }
+
+  @Override
+  public Object visitConstructExpr(Expr.Construct expr) {
+    List<Object> arguments = evaluateArguments(expr.arguments);
+    if (expr.type.type == TokenType.TYPE_MAP && arguments.isEmpty()) {
+      return KaliMap.create(((TypeToken)expr.type).arguments.get(0).lexeme);
+    }
+    if (expr.type.type == TokenType.TYPE_ARRAY && arguments.size() == 1) {
+      Object length = arguments.get(0);
+      if (!isWholeNumber(length) || (double)length < 0) {
+        throw new RuntimeError(expr.paren, "Array length must be a whole number of at least 0.");
+      }
+      return KaliArray.create(((TypeToken)expr.type).arguments.get(0).lexeme, (int)(double)length);
+    }
+    if (expr.type.type != TokenType.TYPE_CHANNEL || arguments.size() != 1) {
+      throw new RuntimeError(expr.paren, "Cannot construct " + expr.type.lexeme + ".");
+    }
+
+    Object capacity = arguments.get(0);
+    if (!isWholeNumber(capacity) || (double)capacity < 1) {
+      throw new RuntimeError(expr.paren, "Channel capacity must be a positive whole number.");
+    }
+    return new KaliChannel((int)(double)capacity);
+  }
+
+  /** Whether a value can be used as a length or an index. */
+  private static boolean isWholeNumber(Object value) {
+    if (!(value instanceof Double)) return false;
+    double number = (double)value;
+    return number == Math.floor(number) && Math.abs(number) <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * number[] is the common case in data-heavy loops, so it reads the double[] directly instead of
+   * going through KaliArray.get.
+   */
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    Object array = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+
+    if (array instanceof KaliArray.Numbers) {
+      double[] values = ((KaliArray.Numbers)array).values;
+      return boxed(values[checkIndex(expr.bracket, index, values.length)]);
+    }
+    if (array instanceof KaliArray) {
+      KaliArray kaliArray = (KaliArray)array;
+      return kaliArray.get(checkIndex(expr.bracket, index, kaliArray.length()));
+    }
+    if (array instanceof KaliMap) {
+      KaliMap map = (KaliMap)array;
+      checkKey(expr.bracket, map, index);
+      if (!map.has(index)) {
+        throw new RuntimeError(expr.bracket, "Key " + stringify(index) + " is not in the map.");
+      }
+      return map.get(index, null);
+    }
+    throw new RuntimeError(expr.bracket, "Can only index arrays and maps.");
+  }
+
+  @Override
+  public Object visitIndexSetExpr(Expr.IndexSet expr) {
+    if (stack != null) stack.line(expr.bracket.line);
+    Object array = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    Object value = evaluate(expr.value);
+
+    if (array instanceof KaliArray.Numbers) {
+      double[] values = ((KaliArray.Numbers)array).values;
+      int i = checkIndex(expr.bracket, index, values.length);
+      checkNumberOperand(expr.bracket, value);
+      values[i] = (double)value;
+      return value;
+    }
+    if (array instanceof KaliArray) {
+      KaliArray kaliArray = (KaliArray)array;
+      int i = checkIndex(expr.bracket, index, kaliArray.length());
+      if (array instanceof KaliArray.Booleans && !(value instanceof Boolean)) {
+        throw new RuntimeError(expr.bracket, "Element must be a boolean.");
+      }
+      kaliArray.set(i, value);
+      return value;
+    }
+    if (array instanceof KaliMap) {
+      KaliMap map = (KaliMap)array;
+      checkKey(expr.bracket, map, index);
+      map.put(index, value);
+      return value;
+    }
+    throw new RuntimeError(expr.bracket, "Can only index arrays and maps.");
+  }
+
+  private void checkKey(Token bracket, KaliMap map, Object key) {
+    if (map.accepts(key)) return;
+    throw new RuntimeError(bracket, "Map key must be a " + map.keyType + ".");
+  }
+
+  private int checkIndex(Token bracket, Object index, int length) {
+    if (!isWholeNumber(index)) {
+      throw new RuntimeError(bracket, "Array index must be a whole number.");
+    }
+    double i = (double)index;
+    if (i < 0 || i >= length) {
+      throw new RuntimeError(bracket, "Array index " + stringify(index) + " out of bounds for length " + length + ".");
+    }
+    return (int)i;
   }
 
   @Override
@@ -150,6 +455,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return ((KaliInstance) object).get(expr.name); //return the get
     }
 
+    if (object instanceof KaliArray && expr.name.lexeme.equals("length")) {
+      return boxed(((KaliArray)object).length());
+    }
+
+    if (object instanceof KaliArray.Numbers) {
+      KaliNative method = KaliArray.method(expr.name.lexeme, (KaliArray.Numbers)object);
+      if (method != null) return method;
+      throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    if (object instanceof KaliMap) {
+      KaliNative method = KaliMap.method(expr.name.lexeme, null, null, (KaliMap)object);
+      if (method != null) return method;
+      throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    if (object instanceof KaliChannel) {
+      KaliNative method = KaliChannel.method(expr.name.lexeme, null, (KaliChannel)object);
+      if (method != null) return method;
+      throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
     throw new RuntimeError(expr.name,"Only instances have properties.");
   }
 
@@ -168,6 +495,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt){
+    environment.share(); // the closure may end up running on another task
     KaliFunction function = new KaliFunction(stmt, environment, false);
     environment.define(stmt.name.lexeme, function);
     return null;
@@ -175,6 +503,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stack != null) stack.line(stmt.keyword.line);
     Object value = null;
     if (stmt.value != null) value = evaluate(stmt.value);
 
@@ -212,15 +541,115 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  /**
+   * Runs the iterations on the common ForkJoinPool. Every range of iterations gets its own
+   * interpreter and loop scope, with private copies of the reduction variables starting at 0 for +
+   * and 1 for *; the copies of all ranges are combined into the variables once the loop is done.
+   * Since the ranges are split as workers become idle, the order in which + adds up the copies
+   * can differ from run to run.
+   */
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    Object from = evaluate(stmt.from);
+    Object to = evaluate(stmt.to);
+    checkNumberOperands(stmt.keyword, from, to);
+
+    double start = (double)from;
+    double steps = Math.ceil((double)to - start);
+    long count = steps > 0 ? (long)steps : 0;
+
+    if (count > MIN_SPLIT) environment.share(); // read by every worker
+    RangeTask loop = new RangeTask(stmt, environment, start, 0, count);
+    double[] partials = count <= MIN_SPLIT ? loop.compute() : ForkJoinPool.commonPool().invoke(loop);
+
+    for (int i = 0; i < stmt.reductions.size(); i++) {
+      Expr.Variable reduction = stmt.reductions.get(i);
+      Object value = lookUpVariable(reduction.name, reduction);
+      checkNumberOperand(reduction.name, value);
+      double result = combine(stmt.operators.get(i), (double)value, partials[i]);
+
+      if (reduction.depth != Expr.GLOBAL) {
+        environment.assignAt(reduction.depth, reduction.name, result);
+      } else {
+        globals.assign(reduction.name, result);
+      }
+    }
+    return null;
+  }
+
+  private static double combine(Token operator, double left, double right) {
+    return operator.type == TokenType.STAR ? left * right : left + right;
+  }
+
+  /** Iterations start..end of a parallel for; yields the reduction copies of those iterations. */
+  @SuppressWarnings("serial") // a fork/join task, never serialized
+  private class RangeTask extends RecursiveTask<double[]> {
+    private final Stmt.ParallelFor loop;
+    private final Environment enclosing;
+    private final double from;
+    private final long start;
+    private final long end;
+
+    RangeTask(Stmt.ParallelFor loop, Environment enclosing, double from, long start, long end) {
+      this.loop = loop;
+      this.enclosing = enclosing;
+      this.from = from;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (end - start > MIN_SPLIT && getSurplusQueuedTaskCount() < MAX_SURPLUS) {
+        long middle = start + (end - start) / 2;
+        RangeTask right = new RangeTask(loop, enclosing, from, middle, end);
+        right.fork();
+        double[] left = new RangeTask(loop, enclosing, from, start, middle).compute();
+        double[] rest = right.join();
+        for (int i = 0; i < left.length; i++) {
+          left[i] = combine(loop.operators.get(i), left[i], rest[i]);
+        }
+        return left;
+      }
+
+      Environment scope = new Environment(enclosing);
+      for (int i = 0; i < loop.reductions.size(); i++) {
+        double identity = loop.operators.get(i).type == TokenType.STAR ? 1.0 : 0.0;
+        scope.define(loop.reductions.get(i).name.lexeme, identity);
+      }
+
+      Interpreter worker = new Interpreter(Interpreter.this);
+      worker.environment = scope;
+      try {
+        for (long i = start; i < end; i++) {
+          scope.define(loop.variable.lexeme, boxed(from + i));
+          worker.execute(loop.body);
+        }
+      } finally {
+        if (worker.stack != null) worker.stack.close();
+      }
+
+      double[] partials = new double[loop.reductions.size()];
+      for (int i = 0; i < partials.length; i++) {
+        Token name = loop.reductions.get(i).name;
+        Object value = scope.getAt(0, name.lexeme);
+        worker.checkNumberOperand(name, value);
+        partials[i] = (double)value;
+      }
+      return partials;
+    }
+  }
+
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(stringify(value));
     return null;
   }
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
+    if (stack != null) stack.line(stmt.name.line);
     Object value = null;
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
@@ -232,11 +661,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
+    if (stack != null) stack.line(expr.name.line);
     Object value = evaluate(expr.value);
     
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+    if (expr.depth != Expr.GLOBAL) {
+      environment.assignAt(expr.depth, expr.name, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -246,6 +675,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    if (stack != null) stack.line(expr.operator.line);
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right); 
 
@@ -304,10 +734,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
       case MINUS:
         checkNumberOperands(expr.operator, left, right);
-        return (double)left - (double)right;
+        return boxed((double)left - (double)right);
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
-          return (double)left + (double)right;
+          return boxed((double)left + (double)right);
         }
         if (left instanceof String && right instanceof String) {
           return (String)left + (String)right;
@@ -319,12 +749,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(expr.operator,"Operands must be two numbers or two strings.");
       case SLASH:
         checkNumberOperands(expr.operator, left, right);
-        return (double)left / (double)right;
+        return boxed((double)left / (double)right);
       case STAR:
         checkStarOperands(expr.operator, left, right);
         if (left instanceof Double) {
           if (right instanceof Double) {
-            return (double)left * (double)right;
+            return boxed((double)left * (double)right);
           } else if (right instanceof String){
             StringBuilder sb = new StringBuilder();
             int times = ((Double) left).intValue();
@@ -366,12 +796,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     switch (expr.operator.type) {
       case MINUS:
         checkNumberOperand(expr.operator, right);
-        return -(double)right;
+        return boxed(-(double)right);
       case BANG:
         return !isTruthy(right);
       case DOUBLE_MINUS:
         checkNumberOperand(expr.operator, right);
-        double decremented = (double)right - 1;
+        Double decremented = boxed((double)right - 1);
         if (expr.right instanceof Variable) {
           Token name = ((Variable) expr.right).name;
           environment.assign(name, decremented);
@@ -380,7 +810,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(expr.operator, "Invalid assignment targetcase DOUBLE_MINUS:"); // not variable error
       case DOUBLE_PLUS:
         checkNumberOperand(expr.operator, right);
-        double incremented = (double)right + 1;
+        Double incremented = boxed((double)right + 1);
         if (expr.right instanceof Variable) {
           Token name = ((Variable) expr.right).name;
           environment.assign(name, incremented);
@@ -397,7 +827,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       case DOUBLE_MINUS:
         Object left = evaluate(expr.left);
         checkNumberOperand(expr.operator, left);
-        double decremented = (double)left - 1;
+        Double decremented = boxed((double)left - 1);
         if (expr.left instanceof Variable) { //here we check that post a increment only works for a variable. and we assigne after all of it is evaluated.
           Token name = ((Variable) expr.left).name;
           environment.assign(name, decremented);
@@ -406,7 +836,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       case DOUBLE_PLUS:
         Object left1 = evaluate(expr.left);
         checkNumberOperand(expr.operator, left1);
-        double incremented = (double)left1 + 1;
+        Double incremented = boxed((double)left1 + 1);
         if (expr.left instanceof Variable) {
           Token name = ((Variable) expr.left).name;
           environment.assign(name, incremented);
@@ -422,21 +852,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return lookUpVariable(expr.name, expr);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
+  private Object lookUpVariable(Token name, Expr.Resolvable expr) {
+    int distance = expr.depth;
+    if (KaliStats.ENABLED) KaliStats.lookup(distance);
+    if (distance != Expr.GLOBAL) {
       return environment.getAt(distance, name.lexeme);
     } else {
       return globals.get(name);
     }
   }
 
+  /**
+   * Runs a statement. This switches on the node's kind rather than calling accept, so every visit
+   * method is a direct call the JIT can inline, not a virtual call with eleven receivers. The
+   * visits stay separate methods: copying ifs and loops in here makes execute recursive and too
+   * big to be inlined itself.
+   */
   private void execute(Stmt stmt) {
-    stmt.accept(this);
-  }
-
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+    switch (stmt.kind) {
+      case Stmt.BLOCK: visitBlockStmt((Stmt.Block)stmt); break;
+      case Stmt.CLASS: visitClassStmt((Stmt.Class)stmt); break;
+      case Stmt.EXPRESSION: visitExpressionStmt((Stmt.Expression)stmt); break;
+      case Stmt.IMPORT: visitImportStmt((Stmt.Import)stmt); break;
+      case Stmt.FUNCTION: visitFunctionStmt((Stmt.Function)stmt); break;
+      case Stmt.IF: visitIfStmt((Stmt.If)stmt); break;
+      case Stmt.PRINT: visitPrintStmt((Stmt.Print)stmt); break;
+      case Stmt.RETURN: visitReturnStmt((Stmt.Return)stmt); break;
+      case Stmt.VAR: visitVarStmt((Stmt.Var)stmt); break;
+      case Stmt.WHILE: visitWhileStmt((Stmt.While)stmt); break;
+      case Stmt.PARALLEL_FOR: visitParallelForStmt((Stmt.ParallelFor)stmt); break;
+      default: throw new IllegalStateException("Unknown statement kind " + stmt.kind + ".");
+    }
   }
 
   void executeBlock(List<Stmt> statements, Environment environment) {
@@ -452,10 +898,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
+  /**
+   * Evaluates an expression. Unlike execute this stays a virtual accept call: a switch here puts
+   * every expression behind one shared method, and whether the JIT inlines it, and so whether the
+   * boxed intermediate results get scalar replaced, then changes from run to run.
+   */
   private Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
+  /** Boxes the result of an arithmetic operation, counting it for --stats. */
+  private static Double boxed(double value) {
+    if (KaliStats.ENABLED) KaliStats.BOXED_NUMBERS.increment();
+    return value;
+  }
+
   private boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
@@ -493,7 +950,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
-  private String stringify(Object object) {
+  String stringify(Object object) {
     if (object == null) return "nil";
 
     if (object instanceof Double) {
@@ -3,8 +3,8 @@ package kali;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
@@ -13,99 +13,162 @@ import java.util.List;
  * Handles script execution, REPL mode, and the core compilation/execution pipeline.
  */
 public class Kali {
-  // Error state flags
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
-  static boolean hadCompilationError = false;
-
-  // Language subsystems
-  private static final Interpreter interpreter = new Interpreter();
-  private static final TypeChecker typeChecker = new TypeChecker();
+  /** Scan and parse large scripts on all cores (--parallel). */
+  private static boolean parallelFrontEnd = false;
+  /** Reuse and write checked programs next to the script (off with --no-cache). */
+  private static boolean programCache = true;
+  /** Resume from the globals saved by snapshot() (off with --no-snapshot). */
+  private static boolean snapshots = true;
+  /** Sample the Kali call stacks while the script runs, see Profiler (--profile). */
+  private static boolean profile = false;
+  /** Print compile timings and interpreter counters when the script ends, see KaliStats (--stats). */
+  private static boolean stats = false;
+  /** Run each declaration as soon as it is parsed, see StreamingPipeline (--stream). */
+  private static boolean stream = false;
+
+  /** When set, errors reported on this thread are collected here instead of printed. */
+  private static final ThreadLocal<List<String>> deferredReports = new ThreadLocal<>();
 
   /**
    * Main entry point.
-   * @param args Command line arguments. [0] is the path to a script file.
+   * @param args Command line arguments: optional flags followed by the path to a script file.
    * @throws IOException If reading input fails.
    */
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: kali [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    String script = null;
+    for (String arg : args) {
+      if (arg.equals("--parallel")) {
+        parallelFrontEnd = true;
+      } else if (arg.equals("--no-cache")) {
+        programCache = false;
+      } else if (arg.equals("--no-snapshot")) {
+        snapshots = false;
+      } else if (arg.equals("--profile")) {
+        profile = true;
+      } else if (arg.equals("--stats")) {
+        System.setProperty("kali.stats", "true"); // before KaliStats is loaded, see there
+        stats = true;
+      } else if (arg.equals("--stream")) {
+        stream = true;
+      } else if (arg.startsWith("--") || script != null) {
+        usage();
+      } else {
+        script = arg;
+      }
+    }
+
+    KaliContext context = new KaliContext();
+    context.bind();
+    if (script != null) {
+      runFile(context, script);
     } else {
-      runPrompt();
+      runPrompt(context);
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: kali [--parallel] [--no-cache] [--no-snapshot] [--profile] [--stats] [--stream] [script]");
+    System.exit(64);
+  }
+
   /**
-   * Reads and executes a source file.
+   * Memory-maps and executes a UTF-8 source file, together with the modules it imports.
+   * The scanner reads the mapped bytes directly, so the files are never copied onto the heap.
+   * When the program cache holds a checked copy of a module, its front-end is skipped,
+   * and when a Snapshot of the program exists, so is everything up to the script's snapshot() call.
+   * With --stats, KaliStats are printed to stderr at the end.
+   * With --profile, the collapsed stacks go to the script's path plus ".folded" and the report to stderr.
+   * With --stream, the script runs while it is parsed, declaration by declaration; see StreamingPipeline.
    * @param path Path to the .kali file.
    * @throws IOException If file reading fails.
    */
-  private static void runFile(String path) throws IOException {
+  private static void runFile(KaliContext context, String path) throws IOException {
     if (!path.endsWith(".kali")) {
       System.err.println("Error: source file must end with .kali");
       System.exit(65);
     }
 
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    Path script = Paths.get(path);
+    if (Files.size(script) > Integer.MAX_VALUE) {
+      System.err.println("Error: source file is larger than 2GB");
+      System.exit(65);
+    }
 
-    if (hadError) System.exit(65);
-    if (hadRuntimeError) System.exit(70);
-    if (hadCompilationError) System.exit(70);
+    Interpreter interpreter = context.interpreter;
+    List<Stmt> statements = null;
+    int resume = 0;
+    if (!stream) {
+      ModuleLoader loader = new ModuleLoader(context, parallelFrontEnd, programCache);
+      statements = loader.load(script);
+      if (context.hadError || context.hadCompilationError) System.exit(context.hadError ? 65 : 70);
+
+      if (snapshots) {
+        Path snapshot = Snapshot.fileFor(script);
+        interpreter.snapshotTo(snapshot, loader.key(), statements);
+        resume = Snapshot.restore(snapshot, loader.key(), statements, interpreter.globals);
+      }
+    }
+    Profiler profiler = null;
+    if (profile) {
+      profiler = new Profiler();
+      interpreter.profile(profiler.start());
+    }
+    if (stream) {
+      new StreamingPipeline(context).run(ModuleLoader.map(script));
+    } else {
+      interpreter.interpret(statements, resume);
+    }
+    if (profiler != null) {
+      profiler.stop();
+      profiler.writeFolded(Paths.get(path + ".folded"));
+      profiler.report(context.err);
+    }
+    if (stats) KaliStats.report(context.err);
+
+    if (context.hadError) System.exit(65);
+    if (context.hadRuntimeError) System.exit(70);
+    if (context.hadCompilationError) System.exit(70);
   }
 
   /**
    * Starts the interactive REPL (Read-Eval-Print Loop).
    * @throws IOException If input reading fails.
    */
-  private static void runPrompt() throws IOException {
+  private static void runPrompt(KaliContext context) throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
+    ReplSession session = new ReplSession(context);
 
     for (;;) {
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      run(line);
-      hadError = false;
+      session.eval(line);
     }
   }
 
   /**
-   * Core pipeline: Scan -> Parse -> Resolve -> Type Check -> Interpret.
-   * @param source The source code string.
+   * Front half of the pipeline: Scan -> Parse.
+   * @param scanner Scanner over the source code.
+   * @return The parsed statements; check hadError before using them.
    */
-  private static void run(String source) {
+  static List<Stmt> parse(Scanner scanner) {
     // 1. Scanning (Lexical Analysis)
-    Scanner scanner = new Scanner(source);
+    PhaseTimer phase = PhaseTimer.start("scan");
     List<Token> tokens = scanner.scanTokens();
+    if (phase != null) phase.stop();
 
     // 2. Parsing (AST Generation)
+    phase = PhaseTimer.start("parse");
     Parser parser = new Parser(tokens);
     List<Stmt> statements = parser.parse();
-
-    // Stop if scanning or parsing failed
-    if (hadError) return;
-
-    // 3. Resolution (Variable binding)
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
-
-    // Stop if resolution failed
-    if (hadError) return;
-
-    // 4. Type Checking (Static Analysis)
-    typeChecker.check(statements);
-    if (hadCompilationError) return;
-
-    // 5. Interpretation (Execution)
-    interpreter.interpret(statements);
+    if (phase != null) phase.stop();
+    return statements;
   }
 
   // --- Error Reporting Utils ---
+  // Errors go to the KaliContext of the calling thread, unless deferReports is collecting them;
+  // with neither, to standard error.
 
   static void error(int line, String message) {
     report(line, "", message);
@@ -114,23 +177,72 @@ public class Kali {
   static void error(Token token, String message) {
     if (token.type == TokenType.EOF) {
       report(token.line, " at end", message);
+    } else if (token.type == TokenType.STRING) {
+      report(token.line, " at '\"" + token.lexeme + "\"'", message); // its lexeme leaves the quotes out
     } else {
       report(token.line, " at '" + token.lexeme + "'", message);
     }
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
+    KaliContext context = KaliContext.current();
+    String report = error.getMessage() + "\n[line " + error.token.line + "]";
+    if (context == null) {
+      System.err.println(report);
+      return;
+    }
+
+    context.report(report);
+    context.hadRuntimeError = true;
   }
 
   static void compilationError(CompilationError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-    hadCompilationError = true;
+    KaliContext context = KaliContext.current();
+    String report = error.getMessage() + "\n[" + location(context, error.token.line) + "]";
+    List<String> deferred = deferredReports.get();
+    if (deferred != null) {
+      deferred.add(report);
+      return;
+    }
+    if (context == null) {
+      System.err.println(report);
+      return;
+    }
+
+    context.report(report);
+    context.hadCompilationError = true;
   }
 
   private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
+    KaliContext context = KaliContext.current();
+    String report = "[" + location(context, line) + "] Error" + where + ": " + message;
+    List<String> deferred = deferredReports.get();
+    if (deferred != null) {
+      deferred.add(report);
+      return;
+    }
+    if (context == null) {
+      System.err.println(report);
+      return;
+    }
+
+    context.report(report);
+    context.hadError = true;
+  }
+
+  private static String location(KaliContext context, int line) {
+    return context == null ? "line " + line : context.location(line);
+  }
+
+  /**
+   * Redirects the errors reported on the calling thread into a list, or back to stderr when null.
+   * Used by front-end work running on pool threads and by KaliEngine, which must not touch the shared error state.
+   */
+  static void deferReports(List<String> reports) {
+    if (reports == null) {
+      deferredReports.remove();
+    } else {
+      deferredReports.set(reports);
+    }
   }
 }
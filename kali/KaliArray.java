@@ -0,0 +1,202 @@
+package kali;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collections;
+
+import kali.natives.ArrayMath;
+
+/**
+ * A fixed-length array, created with T[](length) and indexed with a[i].
+ *
+ * number[] keeps its elements unboxed in a double[] and boolean[] packs them into the bits of a
+ * long[]; every other element type (strings, instances, nested arrays, ...) is an Object[].
+ * New elements are 0, false, "" for strings and nil otherwise.
+ *
+ * Writes to different elements never interfere, also from the iterations of a parallel for:
+ * setting a bit of boolean[] is an atomic update of its word.
+ *
+ * number[] also has bulk methods (sum, dot, add, ...) that run as Java loops, see ArrayMath.
+ */
+abstract class KaliArray {
+  /** The element type as written in the source, e.g. "number" or "Point". */
+  final String element;
+
+  private KaliArray(String element) {
+    this.element = element;
+  }
+
+  abstract int length();
+
+  abstract Object get(int index);
+
+  abstract void set(int index, Object value);
+
+  /**
+   * @param element The element type as written in the source.
+   */
+  static KaliArray create(String element, int length) {
+    switch (element) {
+      case "number": return new Numbers(length);
+      case "boolean": return new Booleans(length);
+      case "string": return new Objects(element, length, "");
+      default: return new Objects(element, length, null);
+    }
+  }
+
+  private static final CompositeType NUMBERS =
+    new CompositeType(TokenType.TYPE_ARRAY, Collections.singletonList(DataType.NUMBER));
+  private static final CompositeType BOOLEANS =
+    new CompositeType(TokenType.TYPE_ARRAY, Collections.singletonList(DataType.BOOLEAN));
+
+  /**
+   * A method of number[], for the TypeChecker (array is null) or bound to an array.
+   * The methods that return an array return a new one.
+   * @return The method, or null if number[] has no such method.
+   */
+  static KaliNative method(String name, Numbers array) {
+    switch (name) {
+      case "sum":
+        return new KaliNative(name, Collections.emptyList(), DataType.NUMBER,
+          (interpreter, arguments) -> ArrayMath.sum(array.values));
+      case "min":
+        return new KaliNative(name, Collections.emptyList(), DataType.NUMBER,
+          (interpreter, arguments) -> ArrayMath.min(array.nonEmpty(name)));
+      case "max":
+        return new KaliNative(name, Collections.emptyList(), DataType.NUMBER,
+          (interpreter, arguments) -> ArrayMath.max(array.nonEmpty(name)));
+      case "dot":
+        return new KaliNative(name, Collections.singletonList(NUMBERS), DataType.NUMBER,
+          (interpreter, arguments) -> ArrayMath.dot(array.values, array.sameLength(arguments.get(0))));
+      case "add":
+        return new KaliNative(name, Collections.singletonList(NUMBERS), NUMBERS,
+          (interpreter, arguments) -> new Numbers(ArrayMath.add(array.values, array.sameLength(arguments.get(0)))));
+      case "mul":
+        return new KaliNative(name, Collections.singletonList(NUMBERS), NUMBERS,
+          (interpreter, arguments) -> new Numbers(ArrayMath.mul(array.values, array.sameLength(arguments.get(0)))));
+      case "scale":
+        return new KaliNative(name, Collections.singletonList(DataType.NUMBER), NUMBERS,
+          (interpreter, arguments) -> new Numbers(ArrayMath.scale(array.values, (double)arguments.get(0))));
+      case "less":
+        return new KaliNative(name, Collections.singletonList(NUMBERS), BOOLEANS,
+          (interpreter, arguments) -> new Booleans(ArrayMath.less(array.values, array.sameLength(arguments.get(0))), array.length()));
+      case "greater":
+        return new KaliNative(name, Collections.singletonList(NUMBERS), BOOLEANS,
+          (interpreter, arguments) -> new Booleans(ArrayMath.less(array.sameLength(arguments.get(0)), array.values), array.length()));
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<" + element + "[" + length() + "]>";
+  }
+
+  static final class Numbers extends KaliArray {
+    final double[] values;
+
+    Numbers(int length) {
+      this(new double[length]);
+    }
+
+    Numbers(double[] values) {
+      super("number");
+      this.values = values;
+    }
+
+    private double[] nonEmpty(String method) {
+      if (values.length == 0) throw new KaliNative.Failure("Cannot take the " + method + " of an empty array.");
+      return values;
+    }
+
+    /** The elements of the argument, which must have as many as this array. */
+    private double[] sameLength(Object other) {
+      if (other == null) throw new KaliNative.Failure("Array argument is nil.");
+      double[] values = ((Numbers)other).values;
+      if (values.length != this.values.length) {
+        throw new KaliNative.Failure("Arrays must have the same length but got " + this.values.length + " and " + values.length + ".");
+      }
+      return values;
+    }
+
+    @Override
+    int length() {
+      return values.length;
+    }
+
+    @Override
+    Object get(int index) {
+      return values[index];
+    }
+
+    @Override
+    void set(int index, Object value) {
+      values[index] = (double)value;
+    }
+  }
+
+  static final class Booleans extends KaliArray {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] words;
+    private final int length;
+
+    Booleans(int length) {
+      this(new long[(length + 63) >>> 6], length);
+    }
+
+    /** @param words One bit per element, the bits past length clear. */
+    Booleans(long[] words, int length) {
+      super("boolean");
+      this.words = words;
+      this.length = length;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+
+    @Override
+    Object get(int index) {
+      return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    void set(int index, Object value) {
+      long bit = 1L << index; // shifts only use the low six bits of index
+      if ((Boolean)value) {
+        WORDS.getAndBitwiseOr(words, index >>> 6, bit);
+      } else {
+        WORDS.getAndBitwiseAnd(words, index >>> 6, ~bit);
+      }
+    }
+  }
+
+  static final class Objects extends KaliArray {
+    final Object[] values;
+
+    Objects(String element, int length, Object initial) {
+      super(element);
+      this.values = new Object[length];
+      if (initial != null) Arrays.fill(values, initial);
+    }
+
+    @Override
+    int length() {
+      return values.length;
+    }
+
+    @Override
+    Object get(int index) {
+      return values[index];
+    }
+
+    @Override
+    void set(int index, Object value) {
+      values[index] = value;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package kali;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded queue for passing values between tasks, created with channel<T>(capacity).
+ * send blocks while the channel is full and receive while it is empty.
+ */
+class KaliChannel {
+  /** Stands in for nil, which the queue cannot hold. */
+  private static final Object NIL = new Object();
+
+  private final BlockingQueue<Object> queue;
+
+  KaliChannel(int capacity) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  void send(Object value) {
+    try {
+      queue.put(value == null ? NIL : value);
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new KaliNative.Failure("Interrupted while sending on a channel.");
+    }
+  }
+
+  Object receive() {
+    try {
+      Object value = queue.take();
+      return value == NIL ? null : value;
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new KaliNative.Failure("Interrupted while receiving from a channel.");
+    }
+  }
+
+  /**
+   * A method of channel<T>, for the TypeChecker (channel is null) or bound to a channel.
+   * @param element T, or null when only the interpreter needs the method.
+   * @return The method, or null if channels have no such method.
+   */
+  static KaliNative method(String name, Object element, KaliChannel channel) {
+    switch (name) {
+      case "send":
+        return new KaliNative(name, Collections.singletonList(element), DataType.VOID,
+          (interpreter, arguments) -> {
+            channel.send(arguments.get(0));
+            return null;
+          });
+      case "receive":
+        return new KaliNative(name, Collections.emptyList(), element,
+          (interpreter, arguments) -> channel.receive());
+      case "size":
+        return new KaliNative(name, Collections.emptyList(), DataType.NUMBER,
+          (interpreter, arguments) -> (double)channel.queue.size());
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
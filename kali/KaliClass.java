@@ -35,6 +35,9 @@ class KaliClass implements KaliCallable{
     if (fields != null && fields.containsKey(name)) {
       return fields.get(name);
     }
+    if (superclass != null) {
+      return superclass.findField(name); // fields are inherited like methods
+    }
     return null;
   }
 
@@ -45,11 +48,14 @@ class KaliClass implements KaliCallable{
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    KaliEvents.ObjectAllocation event = KaliEvents.ENABLED ? KaliEvents.ObjectAllocation.start() : null;
     KaliInstance instance = new KaliInstance(this);
+    if (KaliStats.ENABLED) KaliStats.METHOD_LOOKUPS.increment();
     KaliFunction initializer = findMethod(name); // check constructor should be the name of the function.
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, arguments);
     }
+    if (event != null) event.finish(this);
     return instance;
   }
 
@@ -0,0 +1,148 @@
+package kali;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Everything one program owns while it is compiled and run: its interpreter (and so its globals),
+ * the error flags of the pipeline, and where its output and diagnostics go.
+ *
+ * The reporting helpers in Kali write to the context bound to the calling thread, so the Scanner,
+ * Parser, Resolver and TypeChecker need no reference to one. Contexts share nothing mutable, so any
+ * number of them can run at the same time, each on its own thread:
+ *
+ * <pre>
+ *   Thread thread = new KaliContext(out, err).start(source);
+ * </pre>
+ *
+ * A context is little more than an empty global scope until it compiles something, so creating one
+ * per tenant or per request is cheap. None is ever created implicitly: what gets reported on a thread
+ * with no context bound (a pool thread of the parallel front-end, an application thread compiling
+ * through KaliEngine) is collected by Kali.deferReports or goes to standard error.
+ */
+public final class KaliContext {
+  private static final ThreadLocal<KaliContext> current = new ThreadLocal<>();
+
+  // Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), or null on runtimes without virtual threads.
+  private static final MethodHandle ofVirtual;
+  private static final MethodHandle unstarted;
+
+  static {
+    MethodHandle builder = null;
+    MethodHandle start = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = lookup.findStatic(Thread.class, "ofVirtual",
+          MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+      start = lookup.findVirtual(builderType, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+    } catch (ReflectiveOperationException error) {
+      builder = null; // before Java 21
+      start = null;
+    }
+    ofVirtual = builder;
+    unstarted = start;
+  }
+
+  final Interpreter interpreter;
+  final PrintWriter err;
+
+  // Error state flags
+  boolean hadError = false;
+  boolean hadRuntimeError = false;
+  boolean hadCompilationError = false;
+
+  /** The imported module being compiled, see ModuleLoader; null for the script itself. */
+  String module = null;
+
+  /** Compiles eval() input against what earlier input declared; created on first use. */
+  private ReplSession session;
+
+  /** A context printing to standard output and standard error. */
+  public KaliContext() {
+    this(new PrintWriter(System.out, true), new PrintWriter(System.err, true));
+  }
+
+  /**
+   * @param out Where print writes to.
+   * @param err Where compile and runtime errors are reported.
+   */
+  public KaliContext(Writer out, Writer err) {
+    this.err = printer(err);
+    this.interpreter = new Interpreter(printer(out), this.err);
+  }
+
+  /** The context bound to the calling thread, or null; binds none. */
+  static KaliContext current() {
+    return current.get();
+  }
+
+  /** Binds this context to the calling thread for good; the command line runs one program per process. */
+  void bind() {
+    current.set(this);
+  }
+
+  /** The module the calling thread's context is compiling, or null; binds no context. */
+  static String currentModule() {
+    KaliContext context = current.get();
+    return context == null ? null : context.module;
+  }
+
+  /**
+   * Compiles and runs source in this context on the calling thread. Declarations stay visible
+   * to later calls, as in the REPL.
+   * @return false if the source did not compile or stopped with a runtime error (reported to err).
+   */
+  public boolean eval(String source) {
+    KaliContext previous = current.get();
+    current.set(this);
+    try {
+      if (session == null) session = new ReplSession(this);
+      return session.eval(source);
+    } finally {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Runs eval(source) on a new thread: a virtual thread on runtimes that have them, else a platform one.
+   * A context must not be used by two threads at once.
+   * @return The started thread; join it to wait for the script.
+   */
+  public Thread start(String source) {
+    Thread thread = newThread(() -> eval(source));
+    thread.start();
+    return thread;
+  }
+
+  void report(String message) {
+    err.println(message);
+  }
+
+  String location(int line) {
+    return module == null ? "line " + line : module + " line " + line;
+  }
+
+  static Thread newThread(Runnable task) {
+    if (unstarted != null) {
+      try {
+        // builders are not thread-safe, so each thread gets its own
+        return (Thread)unstarted.invoke(ofVirtual.invoke(), task);
+      } catch (Throwable error) {
+        // fall through to a platform thread
+      }
+    }
+    return new Thread(task);
+  }
+
+  private static PrintWriter printer(Writer writer) {
+    return writer instanceof PrintWriter ? (PrintWriter)writer : new PrintWriter(writer, true);
+  }
+}
@@ -0,0 +1,51 @@
+package kali;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entry point for running Kali from Java.
+ *
+ * <pre>
+ *   CompiledScript script = KaliEngine.compile(source);
+ *   script.run(writer); // as often as needed, from any thread
+ * </pre>
+ *
+ * Compiling runs the whole front-end (scan, parse, resolve, type check) once. Errors are collected
+ * and thrown rather than printed, and none of the static state of the command line (Kali) is touched.
+ */
+public final class KaliEngine {
+  private KaliEngine() {}
+
+  /**
+   * @param source Kali source code.
+   * @return The checked program, ready to run.
+   * @throws KaliScriptException If the source has syntax or type errors.
+   */
+  public static CompiledScript compile(String source) {
+    List<String> errors = new ArrayList<>();
+    List<Stmt> statements;
+
+    Kali.deferReports(errors);
+    try {
+      statements = Kali.parse(new Scanner(source));
+
+      if (errors.isEmpty()) {
+        PhaseTimer phase = PhaseTimer.start("resolve");
+        new Resolver().resolve(statements);
+        if (phase != null) phase.stop();
+      }
+      if (errors.isEmpty()) {
+        PhaseTimer phase = PhaseTimer.start("typecheck");
+        new TypeChecker().check(statements);
+        if (phase != null) phase.stop();
+      }
+    } finally {
+      Kali.deferReports(null);
+    }
+
+    if (!errors.isEmpty()) throw new KaliScriptException(errors);
+    return new CompiledScript(Collections.unmodifiableList(statements));
+  }
+}
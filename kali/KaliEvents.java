@@ -0,0 +1,134 @@
+package kali;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for Kali code, so a recording shows which Kali function or phase
+ * the interpreter frames belong to. They are listed under "Kali" in JMC.
+ *
+ * Registering an event class starts up JFR's machinery, which costs a run several hundred
+ * milliseconds. So the classes are only ever loaded when ENABLED: when the JVM was started with
+ * -XX:StartFlightRecording, or with -Dkali.jfr=true for a recording started later through jcmd.
+ * Call sites test the static final flag, which the JIT folds away, and reach the events only
+ * through the static start methods below.
+ *
+ * The duration events are timed as usual: begin() before, end() and shouldCommit() once it is
+ * over, and only then are the fields filled in. Calls and allocations are frequent, so they come
+ * with thresholds; change them in a .jfc file (e.g. kali.FunctionCall#threshold=0 ms).
+ */
+final class KaliEvents {
+  static final boolean ENABLED = Boolean.getBoolean("kali.jfr") || FlightRecorder.isInitialized();
+
+  private KaliEvents() {}
+
+  @Name("kali.FunctionCall")
+  @Label("Kali Function Call")
+  @Category("Kali")
+  @Description("A call of a function or method declared in Kali")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class FunctionCall extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("Where the function is declared")
+    int line;
+
+    static FunctionCall start() {
+      FunctionCall event = new FunctionCall();
+      event.begin();
+      return event;
+    }
+
+    void finish(Stmt.Function declaration) {
+      end();
+      if (shouldCommit()) {
+        function = declaration.name.lexeme;
+        line = declaration.name.line;
+        commit();
+      }
+    }
+  }
+
+  @Name("kali.ObjectAllocation")
+  @Label("Kali Object Allocation")
+  @Category("Kali")
+  @Description("A new instance of a Kali class, including its constructor; off by default, as it is one event per object")
+  @Enabled(false)
+  @Threshold("0 ms")
+  @StackTrace(false)
+  static final class ObjectAllocation extends Event {
+    @Label("Class")
+    String className;
+
+    static ObjectAllocation start() {
+      ObjectAllocation event = new ObjectAllocation();
+      event.begin();
+      return event;
+    }
+
+    void finish(KaliClass klass) {
+      end();
+      if (shouldCommit()) {
+        className = klass.name;
+        commit();
+      }
+    }
+  }
+
+  @Name("kali.RuntimeError")
+  @Label("Kali Runtime Error")
+  @Category("Kali")
+  @Description("A runtime error that stopped a Kali program")
+  @StackTrace(false)
+  static final class RuntimeErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+
+    static void emit(RuntimeError error) {
+      RuntimeErrorEvent event = new RuntimeErrorEvent();
+      if (event.shouldCommit()) {
+        event.message = error.getMessage();
+        event.line = error.token.line;
+        event.commit();
+      }
+    }
+  }
+
+  @Name("kali.Phase")
+  @Label("Kali Phase")
+  @Category("Kali")
+  @Description("One step of compiling or running a program: scan, parse, resolve, typecheck or interpret")
+  @StackTrace(false)
+  static final class Phase extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Module")
+    @Description("The imported module, or empty for the script itself")
+    String module;
+
+    /** Starts timing a phase of what the calling thread's KaliContext works on; commit it when done. */
+    static Phase start(String name) {
+      Phase event = new Phase();
+      event.begin();
+      if (event.isEnabled()) {
+        event.phase = name;
+        event.module = KaliContext.currentModule();
+      }
+      return event;
+    }
+  }
+}
@@ -4,8 +4,8 @@ import java.util.List;
 
 public class KaliFunction implements KaliCallable {
   final Stmt.Function declaration;
-  private final Environment closure;
-  private final boolean isInitializer; //forconstructor
+  final Environment closure;
+  final boolean isInitializer; //forconstructor
 
   KaliFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
     this.isInitializer = isInitializer;
@@ -14,6 +14,7 @@ public class KaliFunction implements KaliCallable {
   }
 
   KaliFunction bind(KaliInstance instance) {
+    if (KaliStats.ENABLED) KaliStats.BOUND_METHODS.increment();
     Environment environment = new Environment(closure);
     environment.define("this", instance);//this refers to the current instnace the "BINDING" process
     return new KaliFunction(declaration, environment, isInitializer);
@@ -21,16 +22,19 @@ public class KaliFunction implements KaliCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) throws RuntimeException{
+    KaliEvents.FunctionCall event = KaliEvents.ENABLED ? KaliEvents.FunctionCall.start() : null;
     Environment environment = new Environment(closure); // use closure!
     for (int i = 0; i < declaration.params.size(); i++) {
       environment.define(declaration.params.get(i).lexeme, arguments.get(i));
     }
     
     try {
-      interpreter.executeBlock(declaration.body, environment);
+      interpreter.executeBlock(FlatAst.body(declaration), environment); // a cached body is built on first call
     } catch (Return returnValue) {
       if (isInitializer) return closure.getAt(0, "this");
       return returnValue.value;
+    } finally {
+      if (event != null) event.finish(declaration);
     }
 
     if (isInitializer) return closure.getAt(0, "this");
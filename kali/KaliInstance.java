@@ -2,20 +2,27 @@ package kali;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class KaliInstance {
-  private KaliClass klass;
-  private final Map<String, Object> fields = new HashMap<>();
+  // nil is stored as NIL, concurrent maps do not take null
+  private static final Object NIL = new Object();
+
+  final KaliClass klass;
+  // tasks can share an instance, so its fields can be written from several threads
+  private final Map<String, Object> fields = new ConcurrentHashMap<>();
 
   KaliInstance(KaliClass klass) {
     this.klass = klass;
   }
 
   public Object get(Token name){
-    if (fields.containsKey(name.lexeme)){
-      return fields.get(name.lexeme);
+    Object value = fields.get(name.lexeme);
+    if (value != null) {
+      return value == NIL ? null : value;
     }
 
+    if (KaliStats.ENABLED) KaliStats.METHOD_LOOKUPS.increment();
     KaliFunction method = klass.findMethod(name.lexeme);
     if (method != null) return method.bind(this);
     if (method != null) return method;
@@ -24,11 +31,24 @@ class KaliInstance {
   }
 
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    set(name.lexeme, value);
+  }
+
+  void set(String name, Object value) {
+    fields.put(name, value == null ? NIL : value);
+  }
+
+  /** Copy of the fields, for Snapshot. */
+  Map<String, Object> fields() {
+    Map<String, Object> copy = new HashMap<>();
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      copy.put(field.getKey(), field.getValue() == NIL ? null : field.getValue());
+    }
+    return copy;
   }
 
   @Override
   public String toString() {
     return klass.name + " instance";
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,294 @@
+package kali;
+
+import java.util.Arrays;
+
+/**
+ * A hash map, created with map<K, V>() and used with m[key], m[key] = value and the methods below.
+ * Keys are numbers or strings.
+ *
+ * Both kinds are open-addressing tables with linear probing: keys and values sit in two parallel
+ * arrays, so an entry costs no object of its own. Number keys are kept unboxed in a double[].
+ * String keys are interned when they are added, so lookups with a literal usually match on identity;
+ * keys built at run time fall back to equals, and only when the cached hash codes agree.
+ *
+ * An empty slot is a null value; nil values are stored as NIL. Removal shifts the rest of the probe
+ * run back instead of leaving tombstones.
+ *
+ * Unlike arrays, a map must not be written by several tasks or parallel for iterations at once.
+ */
+abstract class KaliMap {
+  private static final Object NIL = new Object();
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The key type as written in the source, "number" or "string". */
+  final String keyType;
+  Object[] values = new Object[INITIAL_CAPACITY];
+  int size = 0;
+
+  private KaliMap(String keyType) {
+    this.keyType = keyType;
+  }
+
+  static KaliMap create(String keyType) {
+    return keyType.equals("number") ? new NumberKeys() : new StringKeys();
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** @return The value for the key, or fallback if there is none. */
+  Object get(Object key, Object fallback) {
+    int slot = find(key);
+    if (values[slot] == null) return fallback;
+    return values[slot] == NIL ? null : values[slot];
+  }
+
+  boolean has(Object key) {
+    return values[find(key)] != null;
+  }
+
+  void put(Object key, Object value) {
+    int slot = find(key);
+    if (values[slot] == null) {
+      if ((size + 1) * 3 > values.length * 2) { // keep the table at most two thirds full
+        grow();
+        slot = find(key);
+      }
+      store(slot, key);
+      size++;
+    }
+    values[slot] = value == null ? NIL : value;
+  }
+
+  boolean remove(Object key) {
+    int hole = find(key);
+    if (values[hole] == null) return false;
+
+    int mask = values.length - 1;
+    for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+      int home = hashAt(next) & mask;
+      // the entry can fill the hole unless its home slot lies cyclically in (hole, next]
+      boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+      if (!stays) {
+        move(next, hole);
+        values[hole] = values[next];
+        hole = next;
+      }
+    }
+    values[hole] = null;
+    clear(hole);
+    size--;
+    return true;
+  }
+
+  /** The keys, in table order. */
+  KaliArray keys() {
+    KaliArray keys = KaliArray.create(keyType, size);
+    int next = 0;
+    for (int slot = 0; slot < values.length; slot++) {
+      if (values[slot] != null) keys.set(next++, keyAt(slot));
+    }
+    return keys;
+  }
+
+  /** Whether the value can be a key of this map, e.g. not nil. */
+  abstract boolean accepts(Object key);
+
+  Object checked(Object key) {
+    if (!accepts(key)) throw new KaliNative.Failure("Map key must be a " + keyType + ".");
+    return key;
+  }
+
+  /** The slot holding the key, or the empty slot where it would go. */
+  abstract int find(Object key);
+
+  abstract Object keyAt(int slot);
+
+  abstract int hashAt(int slot);
+
+  abstract void store(int slot, Object key);
+
+  abstract void move(int from, int to);
+
+  abstract void clear(int slot);
+
+  /** Doubles the table; the subclass re-adds its keys. */
+  abstract void grow();
+
+  static int mix(int hash) {
+    hash *= 0x9E3779B9; // spreads clustered hashes such as consecutive numbers over the table
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * A method of map<K, V>, for the TypeChecker (map is null) or bound to a map.
+   * @param key K, or null when only the interpreter needs the method; the same for value.
+   * @return The method, or null if maps have no such method.
+   */
+  static KaliNative method(String name, Object key, Object value, KaliMap map) {
+    switch (name) {
+      case "get":
+        return new KaliNative(name, Arrays.asList(key, value), value,
+          (interpreter, arguments) -> map.get(map.checked(arguments.get(0)), arguments.get(1)));
+      case "has":
+        return new KaliNative(name, Arrays.asList(key), DataType.BOOLEAN,
+          (interpreter, arguments) -> map.has(map.checked(arguments.get(0))));
+      case "remove":
+        return new KaliNative(name, Arrays.asList(key), DataType.BOOLEAN,
+          (interpreter, arguments) -> map.remove(map.checked(arguments.get(0))));
+      case "size":
+        return new KaliNative(name, Arrays.asList(), DataType.NUMBER,
+          (interpreter, arguments) -> (double)map.size());
+      case "keys":
+        return new KaliNative(name, Arrays.asList(),
+          key == null ? null : new CompositeType(TokenType.TYPE_ARRAY, Arrays.asList(key)),
+          (interpreter, arguments) -> map.keys());
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<map>";
+  }
+
+  static final class NumberKeys extends KaliMap {
+    private double[] keys = new double[INITIAL_CAPACITY];
+
+    NumberKeys() {
+      super("number");
+    }
+
+    @Override
+    boolean accepts(Object key) {
+      return key instanceof Double;
+    }
+
+    @Override
+    int find(Object key) {
+      double number = (double)key;
+      if (number == 0) number = 0; // -0 and 0 are the same key, as they are ==
+      int mask = values.length - 1;
+      int slot = hash(number) & mask;
+      while (values[slot] != null && Double.doubleToLongBits(keys[slot]) != Double.doubleToLongBits(number)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private static int hash(double key) {
+      long bits = Double.doubleToLongBits(key);
+      return mix((int)(bits ^ (bits >>> 32)));
+    }
+
+    @Override
+    Object keyAt(int slot) {
+      return keys[slot];
+    }
+
+    @Override
+    int hashAt(int slot) {
+      return hash(keys[slot]);
+    }
+
+    @Override
+    void store(int slot, Object key) {
+      double number = (double)key;
+      keys[slot] = number == 0 ? 0 : number;
+    }
+
+    @Override
+    void move(int from, int to) {
+      keys[to] = keys[from];
+    }
+
+    @Override
+    void clear(int slot) {
+      keys[slot] = 0;
+    }
+
+    @Override
+    void grow() {
+      double[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new double[oldKeys.length * 2];
+      values = new Object[oldValues.length * 2];
+      int mask = values.length - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] == null) continue;
+        int slot = hash(oldKeys[i]) & mask;
+        while (values[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  static final class StringKeys extends KaliMap {
+    private String[] keys = new String[INITIAL_CAPACITY];
+
+    StringKeys() {
+      super("string");
+    }
+
+    @Override
+    boolean accepts(Object key) {
+      return key instanceof String;
+    }
+
+    @Override
+    int find(Object key) {
+      String string = (String)key;
+      int hash = string.hashCode();
+      int mask = values.length - 1;
+      int slot = mix(hash) & mask;
+      for (String stored; (stored = keys[slot]) != null; slot = (slot + 1) & mask) {
+        if (stored == string || (stored.hashCode() == hash && stored.equals(string))) break;
+      }
+      return slot;
+    }
+
+    @Override
+    Object keyAt(int slot) {
+      return keys[slot];
+    }
+
+    @Override
+    int hashAt(int slot) {
+      return mix(keys[slot].hashCode());
+    }
+
+    @Override
+    void store(int slot, Object key) {
+      keys[slot] = ((String)key).intern();
+    }
+
+    @Override
+    void move(int from, int to) {
+      keys[to] = keys[from];
+    }
+
+    @Override
+    void clear(int slot) {
+      keys[slot] = null;
+    }
+
+    @Override
+    void grow() {
+      String[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new String[oldKeys.length * 2];
+      values = new Object[oldValues.length * 2];
+      int mask = values.length - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] == null) continue;
+        int slot = mix(oldKeys[i].hashCode()) & mask;
+        while (values[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package kali;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A built-in function implemented in Java.
+ *
+ * Unlike the user's KaliFunction, a native has no declaration the TypeChecker could read its
+ * signature from, so it carries its parameter and return types itself (DataType values or
+ * KaliClass, the same type objects the TypeChecker works with; null accepts any type).
+ * The same instances are defined in the Interpreter's globals and in the TypeChecker's root scope.
+ */
+class KaliNative implements KaliCallable {
+  interface Body {
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  /** Thrown by a Body; the interpreter reports it as a RuntimeError at the call. */
+  static class Failure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Failure(String message) {
+      super(message);
+    }
+  }
+
+  final String name;
+  final List<Object> paramTypes;
+  final Object returnType;
+  private final Body body;
+
+  KaliNative(String name, List<Object> paramTypes, Object returnType, Body body) {
+    this.name = name;
+    this.paramTypes = paramTypes;
+    this.returnType = returnType;
+    this.body = body;
+  }
+
+  /**
+   * The natives every program starts with. They keep no state, so every interpreter shares them.
+   */
+  static final List<KaliNative> BUILTINS = Collections.unmodifiableList(Arrays.asList(
+      new KaliNative("clock", Collections.emptyList(), DataType.NUMBER,
+        (interpreter, arguments) -> (double)System.currentTimeMillis() / 1000.0),
+
+      new KaliNative("print", Collections.singletonList(null), DataType.VOID,
+        (interpreter, arguments) -> {
+          interpreter.out.println(interpreter.stringify(arguments.get(0)));
+          return null;
+        }),
+
+      // marks the end of the init phase, see Snapshot
+      new KaliNative("snapshot", Collections.emptyList(), DataType.VOID,
+        (interpreter, arguments) -> {
+          interpreter.snapshot();
+          return null;
+        })
+    ));
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return body.call(interpreter, arguments);
+  }
+
+  @Override
+  public int arity() {
+    return paramTypes.size();
+  }
+
+  @Override
+  public String toString() { return "<native fn>"; }
+}
@@ -0,0 +1,98 @@
+package kali;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * JSR-223 adapter over KaliEngine. Output goes to the context's writer.
+ *
+ * Kali is statically typed and has no way to declare a binding's type, so bindings are not visible to
+ * scripts, and eval always returns null. compile() gives a javax.script.CompiledScript that can be
+ * evaluated repeatedly and concurrently without parsing again.
+ */
+public class KaliScriptEngine extends AbstractScriptEngine implements Compilable {
+  private final ScriptEngineFactory factory;
+
+  KaliScriptEngine(ScriptEngineFactory factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public Object eval(String script, ScriptContext context) throws ScriptException {
+    return compile(script).eval(context);
+  }
+
+  @Override
+  public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+    return eval(read(reader), context);
+  }
+
+  @Override
+  public javax.script.CompiledScript compile(String script) throws ScriptException {
+    CompiledScript compiled;
+    try {
+      compiled = KaliEngine.compile(script);
+    } catch (KaliScriptException error) {
+      throw scriptException(error);
+    }
+
+    return new javax.script.CompiledScript() {
+      @Override
+      public Object eval(ScriptContext context) throws ScriptException {
+        try {
+          compiled.run(context.getWriter());
+        } catch (KaliScriptException error) {
+          throw scriptException(error);
+        }
+        return null;
+      }
+
+      @Override
+      public javax.script.ScriptEngine getEngine() {
+        return KaliScriptEngine.this;
+      }
+    };
+  }
+
+  @Override
+  public javax.script.CompiledScript compile(Reader script) throws ScriptException {
+    return compile(read(script));
+  }
+
+  @Override
+  public Bindings createBindings() {
+    return new SimpleBindings();
+  }
+
+  @Override
+  public ScriptEngineFactory getFactory() {
+    return factory;
+  }
+
+  private static ScriptException scriptException(KaliScriptException error) {
+    ScriptException exception = new ScriptException(error.getMessage());
+    exception.initCause(error);
+    return exception;
+  }
+
+  private static String read(Reader reader) throws ScriptException {
+    StringBuilder source = new StringBuilder();
+    char[] buffer = new char[8192];
+    try {
+      for (int n; (n = reader.read(buffer)) != -1; ) {
+        source.append(buffer, 0, n);
+      }
+    } catch (IOException error) {
+      throw new ScriptException(error);
+    }
+    return source.toString();
+  }
+}
@@ -0,0 +1,75 @@
+package kali;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Makes Kali available to javax.script (JSR-223) under the names "kali" and "Kali".
+ * Registered in META-INF/services/javax.script.ScriptEngineFactory.
+ */
+public class KaliScriptEngineFactory implements ScriptEngineFactory {
+  private static final String VERSION = "0.0.1";
+
+  @Override
+  public String getEngineName() { return "Kali"; }
+
+  @Override
+  public String getEngineVersion() { return VERSION; }
+
+  @Override
+  public List<String> getExtensions() { return Collections.singletonList("kali"); }
+
+  @Override
+  public List<String> getMimeTypes() { return Collections.singletonList("application/x-kali"); }
+
+  @Override
+  public List<String> getNames() { return Arrays.asList("kali", "Kali"); }
+
+  @Override
+  public String getLanguageName() { return "Kali"; }
+
+  @Override
+  public String getLanguageVersion() { return VERSION; }
+
+  @Override
+  public Object getParameter(String key) {
+    switch (key) {
+      case ScriptEngine.ENGINE: return getEngineName();
+      case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+      case ScriptEngine.NAME: return getNames().get(0);
+      case ScriptEngine.LANGUAGE: return getLanguageName();
+      case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+      // every evaluation starts from fresh globals and bindings are never touched
+      case "THREADING": return "STATELESS";
+      default: return null;
+    }
+  }
+
+  @Override
+  public String getMethodCallSyntax(String obj, String m, String... args) {
+    return obj + "." + m + "(" + String.join(", ", args) + ")";
+  }
+
+  @Override
+  public String getOutputStatement(String toDisplay) {
+    return "print \"" + toDisplay + "\";";
+  }
+
+  @Override
+  public String getProgram(String... statements) {
+    StringBuilder program = new StringBuilder();
+    for (String statement : statements) {
+      program.append(statement).append(";\n");
+    }
+    return program.toString();
+  }
+
+  @Override
+  public ScriptEngine getScriptEngine() {
+    return new KaliScriptEngine(this);
+  }
+}
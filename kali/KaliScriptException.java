@@ -0,0 +1,24 @@
+package kali;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by the embedding API when a script does not compile or stops with a runtime error.
+ * The messages are the same ones the command line prints.
+ */
+public class KaliScriptException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> errors;
+
+  KaliScriptException(List<String> errors) {
+    super(String.join("\n", errors));
+    this.errors = Collections.unmodifiableList(errors);
+  }
+
+  /** Every reported error, in the order they were found. */
+  public List<String> getErrors() {
+    return errors;
+  }
+}
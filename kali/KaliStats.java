@@ -0,0 +1,119 @@
+package kali;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compile timings and interpreter counters (--stats, or -Dkali.stats=true when embedding).
+ *
+ * ENABLED is read once, when this class is first used, and the counting sites all test it first,
+ * so with stats off the JIT drops them and the hot path is as if they were not there. Kali.main
+ * sets the property before anything counts.
+ *
+ * The counters are process-wide and LongAdders, since tasks and parallel for ranges count from
+ * several threads at once.
+ */
+public final class KaliStats {
+  static final boolean ENABLED = Boolean.getBoolean("kali.stats");
+
+  /** Variable lookups are counted by scope distance, up to this many hops; farther ones share the last slot. */
+  private static final int MAX_HOPS = 8;
+
+  static final LongAdder TOKENS = new LongAdder();
+  /** AST nodes built, by the parser or when loading the program cache. */
+  static final LongAdder NODES = new LongAdder();
+  /** Calls of functions, methods, classes and natives, including spawned ones. */
+  static final LongAdder CALLS = new LongAdder();
+  static final LongAdder ENVIRONMENTS = new LongAdder();
+  static final LongAdder GLOBAL_LOOKUPS = new LongAdder();
+  private static final LongAdder[] LOCAL_LOOKUPS = new LongAdder[MAX_HOPS + 1];
+  /** Methods looked up on a class, for a property access, super or a constructor call. */
+  static final LongAdder METHOD_LOOKUPS = new LongAdder();
+  static final LongAdder BOUND_METHODS = new LongAdder();
+  /** Numbers boxed by arithmetic, increments and number[] reads. */
+  static final LongAdder BOXED_NUMBERS = new LongAdder();
+
+  // phase name -> nanoseconds, in the order the phases first ran
+  private static final Map<String, LongAdder> PHASES = new LinkedHashMap<>();
+
+  static {
+    for (int i = 0; i < LOCAL_LOOKUPS.length; i++) LOCAL_LOOKUPS[i] = new LongAdder();
+  }
+
+  private KaliStats() {}
+
+  /** Whether this JVM counts; see the class comment. */
+  public static boolean enabled() {
+    return ENABLED;
+  }
+
+  /** A variable lookup; distance is the Resolver's, Expr.GLOBAL for a global. */
+  static void lookup(int distance) {
+    if (distance == Expr.GLOBAL) {
+      GLOBAL_LOOKUPS.increment();
+    } else {
+      LOCAL_LOOKUPS[Math.min(distance, MAX_HOPS)].increment();
+    }
+  }
+
+  static void phase(String name, long nanos) {
+    LongAdder total;
+    synchronized (PHASES) {
+      total = PHASES.computeIfAbsent(name, key -> new LongAdder());
+    }
+    total.add(nanos);
+  }
+
+  /**
+   * The current values, e.g. "tokens" or "lookups.hops2"; phase times are in nanoseconds under
+   * "phase.scan" and so on. All zero unless enabled.
+   */
+  public static Map<String, Long> counters() {
+    Map<String, Long> counters = new LinkedHashMap<>();
+    synchronized (PHASES) {
+      for (Map.Entry<String, LongAdder> phase : PHASES.entrySet()) {
+        counters.put("phase." + phase.getKey(), phase.getValue().sum());
+      }
+    }
+    counters.put("tokens", TOKENS.sum());
+    counters.put("nodes", NODES.sum());
+    counters.put("calls", CALLS.sum());
+    counters.put("environments", ENVIRONMENTS.sum());
+    counters.put("lookups.global", GLOBAL_LOOKUPS.sum());
+    for (int i = 0; i < LOCAL_LOOKUPS.length; i++) {
+      counters.put("lookups.hops" + i + (i == MAX_HOPS ? "+" : ""), LOCAL_LOOKUPS[i].sum());
+    }
+    counters.put("methodLookups", METHOD_LOOKUPS.sum());
+    counters.put("boundMethods", BOUND_METHODS.sum());
+    counters.put("boxedNumbers", BOXED_NUMBERS.sum());
+    return counters;
+  }
+
+  /** Sets every counter back to zero, e.g. between the runs of a benchmark. */
+  public static void reset() {
+    synchronized (PHASES) {
+      PHASES.clear();
+    }
+    for (LongAdder counter : new LongAdder[] {TOKENS, NODES, CALLS, ENVIRONMENTS, GLOBAL_LOOKUPS,
+        METHOD_LOOKUPS, BOUND_METHODS, BOXED_NUMBERS}) {
+      counter.reset();
+    }
+    for (LongAdder counter : LOCAL_LOOKUPS) counter.reset();
+  }
+
+  static void report(PrintWriter out) {
+    out.println("Stats:");
+    for (Map.Entry<String, Long> counter : counters().entrySet()) {
+      if (counter.getKey().startsWith("phase.")) {
+        double millis = counter.getValue() / (double)TimeUnit.MILLISECONDS.toNanos(1);
+        out.println(String.format("  %-18s %12.2f ms", counter.getKey(), millis));
+      } else {
+        out.println(String.format("  %-18s %12d", counter.getKey(), counter.getValue()));
+      }
+    }
+    out.flush();
+  }
+}
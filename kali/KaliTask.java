@@ -0,0 +1,66 @@
+package kali;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * What spawn evaluates to: a function call running on its own thread, and later its result.
+ */
+class KaliTask {
+  private final CompletableFuture<Object> result = new CompletableFuture<>();
+  /** The spawn that started the task, where errors nobody awaited are reported. */
+  private final Token spawn;
+  /** Set once someone awaited the task, so its error has been seen already. */
+  private volatile boolean awaited = false;
+
+  KaliTask(Token spawn) {
+    this.spawn = spawn;
+  }
+
+  void run(Supplier<Object> call) {
+    try {
+      result.complete(call.get());
+    } catch (Throwable error) {
+      result.completeExceptionally(error);
+    }
+  }
+
+  /**
+   * Blocks until the task is done.
+   * @return What the function returned.
+   * @throws RuntimeError The error the task stopped with.
+   */
+  Object await(Token keyword) {
+    awaited = true;
+    try {
+      return result.join();
+    } catch (CompletionException error) {
+      throw failure(keyword, error.getCause());
+    }
+  }
+
+  /**
+   * Waits for the task without taking its result, see Interpreter.run.
+   * @return The error it stopped with, unless that was already thrown by await.
+   */
+  RuntimeError join() {
+    try {
+      result.join();
+      return null;
+    } catch (CompletionException error) {
+      return awaited ? null : failure(spawn, error.getCause());
+    }
+  }
+
+  private static RuntimeError failure(Token keyword, Throwable cause) {
+    if (cause instanceof RuntimeError) return (RuntimeError)cause;
+    if (cause instanceof StackOverflowError) return new RuntimeError(keyword, "Stack overflow in spawned task.");
+    return new RuntimeError(keyword, "Spawned task failed: " + cause + ".");
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+}
@@ -0,0 +1,257 @@
+package kali;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads a script together with every module it imports.
+ *
+ * `import "lib/shapes.kali";` makes the top-level declarations of that file visible to the importing
+ * file. Paths are relative to the importing file, and each module is loaded and runs only once,
+ * however many files import it. Imports must not form a cycle.
+ *
+ * Every module is scanned, parsed, resolved and type checked on its own; its type checker only sees
+ * the builtins and the exports (top-level functions, classes and variables) of the modules it imports
+ * directly. At run time all modules share the global scope, so two modules cannot define the same name.
+ *
+ * With the program cache on, a module whose source did not change skips the front-end. Its key is the
+ * hash of its source and the keys of its imports, so when none of its dependencies changed either, the
+ * cached AST is known to type check and only its declarations are re-read to build its exports.
+ */
+class ModuleLoader {
+  /** A loaded source file. */
+  private static class Module {
+    final Path path;
+    final ByteBuffer source;
+    final List<Module> imports = new ArrayList<>();
+    List<Stmt> statements;
+    /** SHA-256 of the source and the keys of the imports. */
+    byte[] key;
+    /** The key the cached AST was checked against, or null if it was compiled on this run. */
+    byte[] checkedKey;
+    Map<String, Object> exports;
+
+    Module(Path path, ByteBuffer source) {
+      this.path = path;
+      this.source = source;
+    }
+  }
+
+  private final KaliContext context;
+  private final boolean parallelFrontEnd;
+  private final boolean programCache;
+
+  private final Map<Path, Module> modules = new HashMap<>();
+  /** Modules whose imports are still being loaded; an import of one of these closes a cycle. */
+  private final List<Module> loading = new ArrayList<>();
+  /** Loaded modules, every module after the modules it imports. */
+  private final List<Module> order = new ArrayList<>();
+  private Path root;
+
+  ModuleLoader(KaliContext context, boolean parallelFrontEnd, boolean programCache) {
+    this.context = context;
+    this.parallelFrontEnd = parallelFrontEnd;
+    this.programCache = programCache;
+  }
+
+  /**
+   * Loads and checks a script and its imports. Errors are reported through Kali as usual;
+   * check the context's hadError and hadCompilationError before running the result.
+   * @return The top-level statements of all modules, dependencies first.
+   * @throws IOException If the script itself cannot be read.
+   */
+  List<Stmt> load(Path script) throws IOException {
+    root = script.toAbsolutePath().normalize();
+    Module main = new Module(root, map(root));
+    modules.put(root, main);
+    load(main);
+
+    if (!context.hadError) check();
+    if (!context.hadError && !context.hadCompilationError && programCache) store();
+    context.module = null;
+
+    List<Stmt> program = new ArrayList<>();
+    for (Module module : order) program.addAll(module.statements);
+    return program;
+  }
+
+  /** Identifies the loaded program as a whole: its sources and how they import each other. */
+  byte[] key() {
+    return modules.get(root).key;
+  }
+
+  private void load(Module module) {
+    frontEnd(module);
+    if (context.hadError) return;
+
+    loading.add(module);
+    for (Stmt statement : module.statements) {
+      if (!(statement instanceof Stmt.Import)) continue;
+      Module imported = resolve(module, (Stmt.Import)statement);
+      if (context.hadError) return;
+      if (!module.imports.contains(imported)) module.imports.add(imported);
+    }
+    loading.remove(module);
+
+    MessageDigest digest = digest();
+    digest.update(ProgramCache.hash(module.source));
+    for (Module imported : module.imports) digest.update(imported.key);
+    module.key = digest.digest();
+    order.add(module);
+  }
+
+  /** Finds, and if needed loads, the module named by an import statement. */
+  private Module resolve(Module importer, Stmt.Import statement) {
+    Path path = importer.path.resolveSibling((String)statement.path.literal).normalize();
+    Module module = modules.get(path);
+
+    if (module != null) {
+      if (loading.contains(module)) {
+        StringBuilder cycle = new StringBuilder();
+        for (Module step : loading.subList(loading.indexOf(module), loading.size())) {
+          cycle.append(label(step)).append(" -> ");
+        }
+        reportIn(importer, statement.path, "Import cycle: " + cycle + label(module) + ".");
+      }
+      return module;
+    }
+
+    try {
+      module = new Module(path, map(path));
+    } catch (IOException error) {
+      reportIn(importer, statement.path, "Cannot read module '" + statement.path.literal + "'.");
+      return null;
+    }
+    modules.put(path, module);
+    load(module);
+    return module;
+  }
+
+  /** Scan -> Parse -> Resolve, or the cached result of an earlier run. */
+  private void frontEnd(Module module) {
+    context.module = name(module);
+
+    PhaseTimer phase = programCache ? PhaseTimer.start("load cache") : null;
+    ProgramCache.Entry cached = programCache ? ProgramCache.load(module.path, module.source) : null;
+    if (phase != null) phase.stop();
+    if (cached != null) {
+      module.statements = cached.statements;
+      module.checkedKey = cached.checkedKey;
+      return;
+    }
+
+    if (parallelFrontEnd) {
+      phase = PhaseTimer.start("scan and parse");
+      module.statements = ParallelFrontEnd.parse(module.source);
+      if (phase != null) phase.stop();
+    } else {
+      module.statements = Kali.parse(new Scanner(module.source));
+    }
+    if (context.hadError) return;
+
+    phase = PhaseTimer.start("resolve");
+    new Resolver().resolve(module.statements);
+    if (phase != null) phase.stop();
+  }
+
+  /**
+   * Type checks the modules in dependency order, each against the exports of its imports,
+   * and makes sure no two modules define the same global.
+   */
+  private void check() {
+    Map<String, Module> definedBy = new HashMap<>();
+
+    for (Module module : order) {
+      context.module = name(module);
+
+      for (Token name : declarations(module.statements)) {
+        Module other = definedBy.putIfAbsent(name.lexeme, module);
+        if (other != null && other != module) {
+          Kali.compilationError(new CompilationError(name,
+              "'" + name.lexeme + "' is already defined in module " + label(other) + "."));
+          return;
+        }
+      }
+
+      Map<String, Object> imports = new LinkedHashMap<>();
+      for (Module imported : module.imports) imports.putAll(imported.exports);
+
+      PhaseTimer phase = PhaseTimer.start("typecheck");
+      TypeChecker checker = new TypeChecker(imports);
+      if (Arrays.equals(module.key, module.checkedKey)) {
+        checker.declare(module.statements); // checked against these very dependencies before
+      } else {
+        checker.check(module.statements);
+      }
+      if (phase != null) phase.stop();
+      if (context.hadCompilationError) return;
+      module.exports = checker.exports();
+    }
+  }
+
+  private void store() {
+    for (Module module : order) {
+      if (!Arrays.equals(module.key, module.checkedKey)) {
+        ProgramCache.store(module.path, module.source, module.key, module.statements);
+      }
+    }
+  }
+
+  /** Names declared at the top level of a module. */
+  private static List<Token> declarations(List<Stmt> statements) {
+    List<Token> names = new ArrayList<>();
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Var) names.add(((Stmt.Var)statement).name);
+      else if (statement instanceof Stmt.Function) names.add(((Stmt.Function)statement).name);
+      else if (statement instanceof Stmt.Class) names.add(((Stmt.Class)statement).name);
+    }
+    return names;
+  }
+
+  private void reportIn(Module module, Token token, String message) {
+    context.module = name(module);
+    Kali.error(token, message);
+  }
+
+  /** A module's path relative to the script's directory. */
+  private String label(Module module) {
+    return root.getParent().relativize(module.path).toString();
+  }
+
+  /** Which module error locations name: none for the script itself, as without imports. */
+  private String name(Module module) {
+    return module.path.equals(root) ? null : label(module);
+  }
+
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException("SHA-256 is not available.", error);
+    }
+  }
+
+  /**
+   * Memory-maps a source file; the scanner reads the mapped bytes directly.
+   */
+  static MappedByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(path + " is larger than 2GB");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package kali;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans and parses a large source on several threads.
+ *
+ * A cheap pre-scan walks the raw bytes, tracking only brace/paren depth, string literals and
+ * comments, to find the places where one top-level declaration ends and the next begins.
+ * The source is cut at some of those places into roughly equal chunks, and every chunk is
+ * scanned and parsed on its own in the common ForkJoinPool. Concatenating the chunk results
+ * in order gives the same List<Stmt> as the sequential Scanner -> Parser pipeline.
+ */
+class ParallelFrontEnd {
+  /** Below this many bytes per chunk the fork/join overhead outweighs the work. */
+  private static final int MIN_CHUNK_BYTES = 64 * 1024;
+  /** More chunks than threads, so an unlucky large chunk does not hold everybody up. */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final ByteBuffer source;
+  private final List<Chunk> chunks = new ArrayList<>();
+
+  private ParallelFrontEnd(ByteBuffer source) {
+    this.source = source;
+  }
+
+  /**
+   * Parses the whole source, in parallel when it is big enough to be worth it.
+   * Syntax errors are reported exactly as the sequential front-end would report them.
+   * @param source UTF-8 source code.
+   * @return The top-level statements, in source order.
+   */
+  static List<Stmt> parse(ByteBuffer source) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int target = Math.max(MIN_CHUNK_BYTES, source.limit() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+
+    ParallelFrontEnd frontEnd = new ParallelFrontEnd(source);
+    frontEnd.split(target);
+    if (frontEnd.chunks.size() < 2) return sequential(source);
+
+    List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+    for (Chunk chunk : frontEnd.chunks) {
+      tasks.add(pool.submit(chunk));
+    }
+
+    List<Stmt> statements = new ArrayList<>();
+    boolean failed = false;
+    for (int i = 0; i < tasks.size(); i++) {
+      statements.addAll(tasks.get(i).join());
+      failed |= !frontEnd.chunks.get(i).reports.isEmpty();
+    }
+
+    // Error recovery in the parser may run across a chunk boundary, so the only way to report
+    // the very same errors is to do it the sequential way. Errors are the rare case.
+    if (failed) return sequential(source);
+    return statements;
+  }
+
+  private static List<Stmt> sequential(ByteBuffer source) {
+    List<Token> tokens = new Scanner(source).scanTokens();
+    return new Parser(tokens).parse();
+  }
+
+  /**
+   * Pre-scan: finds top-level declaration boundaries and cuts a chunk at the first one after
+   * every `target` bytes. A boundary is a ';' or '}' with no open brace or paren, unless the next
+   * word is 'else' (the statement is an if that continues).
+   */
+  private void split(int target) {
+    int length = source.limit();
+    int depth = 0;
+    int line = 1;
+    int chunkStart = 0;
+    int chunkLine = 1;
+
+    int i = 0;
+    while (i < length) {
+      byte c = source.get(i++);
+      boolean boundary = false;
+      switch (c) {
+        case '\n':
+          line++;
+          break;
+        case '"':
+          while (i < length && source.get(i) != '"') {
+            if (source.get(i) == '\n') line++;
+            i++;
+          }
+          i++;
+          break;
+        case '/':
+          if (i < length && source.get(i) == '/') {
+            while (i < length && source.get(i) != '\n') i++;
+          }
+          break;
+        case '{':
+        case '(':
+          depth++;
+          break;
+        case '}':
+        case ')':
+          depth--;
+          boundary = c == '}' && depth == 0; // a closing brace at depth 0 ends a declaration
+          break;
+        case ';':
+          boundary = depth == 0;
+          break;
+        default:
+          break;
+      }
+
+      if (boundary && i - chunkStart >= target && i < length && !continuesWithElse(i)) {
+        chunks.add(new Chunk(source.slice(chunkStart, i - chunkStart), chunkLine));
+        chunkStart = i;
+        chunkLine = line;
+      }
+    }
+
+    if (chunkStart < length) {
+      chunks.add(new Chunk(source.slice(chunkStart, length - chunkStart), chunkLine));
+    }
+  }
+
+  private boolean continuesWithElse(int from) {
+    int length = source.limit();
+    int i = from;
+    while (i < length) {
+      byte c = source.get(i);
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        i++;
+      } else if (c == '/' && i + 1 < length && source.get(i + 1) == '/') {
+        while (i < length && source.get(i) != '\n') i++;
+      } else {
+        break;
+      }
+    }
+
+    if (i + 4 > length) return false;
+    if (source.get(i) != 'e' || source.get(i + 1) != 'l' || source.get(i + 2) != 's' || source.get(i + 3) != 'e') {
+      return false;
+    }
+    if (i + 4 == length) return true;
+    byte next = source.get(i + 4);
+    return !(next == '_' || (next >= 'a' && next <= 'z') || (next >= 'A' && next <= 'Z') || (next >= '0' && next <= '9'));
+  }
+
+  /**
+   * One slice of the source, scanned and parsed on a pool thread.
+   * Errors are buffered instead of printed so that no partial output escapes.
+   */
+  @SuppressWarnings("serial") // a fork/join task, never serialized
+  private static class Chunk extends RecursiveTask<List<Stmt>> {
+    private final ByteBuffer source;
+    private final int firstLine;
+    private final List<String> reports = new ArrayList<>();
+
+    Chunk(ByteBuffer source, int firstLine) {
+      this.source = source;
+      this.firstLine = firstLine;
+    }
+
+    @Override
+    protected List<Stmt> compute() {
+      Kali.deferReports(reports);
+      try {
+        List<Token> tokens = new Scanner(source, firstLine).scanTokens();
+        return new Parser(tokens).parse();
+      } finally {
+        Kali.deferReports(null);
+      }
+    }
+  }
+}
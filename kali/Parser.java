@@ -2,15 +2,90 @@ package kali;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Parser {
 	private static class ParseError extends RuntimeException {}
+
+  // Binding power of operators, lowest first. PREC_NONE also marks an open '(' on the operator stack.
+  private static final int PREC_NONE = 0;
+  private static final int PREC_ASSIGNMENT = 1;
+  private static final int PREC_OR = 2;
+  private static final int PREC_AND = 3;
+  private static final int PREC_EQUALITY = 4;
+  private static final int PREC_COMPARISON = 5;
+  private static final int PREC_TERM = 6;
+  private static final int PREC_FACTOR = 7;
+  private static final int PREC_UNARY = 8;
+
+  /**
+   * How deep statements and expressions may nest, counted together. The parser keeps nested
+   * expressions off the Java stack, but the resolver, type checker and interpreter walk the tree
+   * recursively, so a deeper tree is reported here instead of overflowing the stack there.
+   */
+  static final int MAX_NESTING = 1000;
+
+  /** Precedence of each token type when it appears between two operands, indexed by ordinal. */
+  private static final int[] INFIX = new int[TokenType.values().length];
+
+  static {
+    INFIX[TokenType.EQUAL.ordinal()] = PREC_ASSIGNMENT;
+    INFIX[TokenType.OR.ordinal()] = PREC_OR;
+    INFIX[TokenType.AND.ordinal()] = PREC_AND;
+    INFIX[TokenType.BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+    INFIX[TokenType.EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+    INFIX[TokenType.GREATER.ordinal()] = PREC_COMPARISON;
+    INFIX[TokenType.GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+    INFIX[TokenType.LESS.ordinal()] = PREC_COMPARISON;
+    INFIX[TokenType.LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+    INFIX[TokenType.MINUS.ordinal()] = PREC_TERM;
+    INFIX[TokenType.PLUS.ordinal()] = PREC_TERM;
+    INFIX[TokenType.SLASH.ordinal()] = PREC_FACTOR;
+    INFIX[TokenType.STAR.ordinal()] = PREC_FACTOR;
+  }
+
+  // Token sets as bitmasks over TokenType ordinals, checked with a single AND instead of a varargs loop.
+  private static final long PREFIX_OPERATORS = setOf(TokenType.BANG, TokenType.MINUS, TokenType.DOUBLE_PLUS, TokenType.DOUBLE_MINUS,
+      TokenType.SPAWN, TokenType.AWAIT);
+  private static final long POSTFIX_OPERATORS = setOf(TokenType.DOUBLE_PLUS, TokenType.DOUBLE_MINUS);
+  private static final long LITERALS = setOf(TokenType.NUMBER, TokenType.STRING);
+  private static final long PRIMITIVE_TYPES = setOf(TokenType.TYPE_NUMBER, TokenType.TYPE_STRING, TokenType.TYPE_BOOLEAN);
+  private static final long DECLARATION_TYPES = PRIMITIVE_TYPES | setOf(TokenType.TYPE_VOID);
+  private static final long MEMBER_TYPES = PRIMITIVE_TYPES | setOf(TokenType.IDENTIFIER);
+  private static final long COMPOUND_TYPES = setOf(TokenType.TYPE_TASK, TokenType.TYPE_CHANNEL, TokenType.TYPE_MAP);
+
 	private final List<Token> tokens;
   private int current = 0;
+  /** Where more tokens come from when the parser reads as it goes, see Parser(Scanner); else null. */
+  private final Scanner scanner;
+
+  // Operand and operator stacks used by expression(); they only grow.
+  private Expr[] operands = new Expr[16];
+  private Token[] operators = new Token[16];
+  private int[] precedences = new int[16];
+  private int[] heights = new int[16];
+  private int operandTop = 0;
+  private int operatorTop = 0;
+  /** The height of the expression node built last; heights holds those of the operands on the stack. */
+  private int height = 0;
+  /** How many statements and blocks the one being parsed is in, see MAX_NESTING. */
+  private int nesting = 0;
+  /** Whether the error being thrown is one of MAX_NESTING; the rest of the source is skipped then. */
+  private boolean tooDeep = false;
 
   Parser(List<Token> tokens) {
     this.tokens = tokens;
+    this.scanner = null;
+  }
+
+  /**
+   * A parser that asks the scanner for tokens only as it needs them, and hands out one top-level
+   * declaration at a time with hasNext and next, for StreamingPipeline.
+   */
+  Parser(Scanner scanner) {
+    this.tokens = new ArrayList<>();
+    this.scanner = scanner;
   }
 
   List<Stmt> parse() {
@@ -22,6 +97,23 @@ public class Parser {
     return statements;
   }
 
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  /**
+   * The next top-level declaration, or null if it did not parse (the error is reported).
+   * The tokens of the declarations before it are dropped, so a parser reading from a scanner only
+   * holds the tokens of the one it is parsing.
+   */
+  Stmt next() {
+    if (current > 0) {
+      tokens.subList(0, current).clear();
+      current = 0;
+    }
+    return declaration();
+  }
+
   // --- Statements ---
 
   private Stmt declaration() {
@@ -30,6 +122,10 @@ public class Parser {
         return classDeclaration();
       }
 
+      if (match(TokenType.IMPORT)) {
+        return importDeclaration();
+      }
+
       //immediate void checking for function declaration
       if (match(TokenType.TYPE_VOID)){
         Token type = previous();
@@ -40,8 +136,39 @@ public class Parser {
         }
       }
       
+      // compound types, unless this is an expression statement such as channel<number>(8).send(1);
+      if (checkAny(COMPOUND_TYPES)) {
+        int start = current;
+        Token type = arraySuffix(compoundType());
+        if (check(TokenType.IDENTIFIER)) {
+          Token name = advance();
+          if (check(TokenType.LEFT_PAREN)) {
+            return functionDeclaration(type, name);
+          } else {
+            return varDeclaration(type, name);
+          }
+        }
+        current = start;
+      }
+
+      // array constructions such as number[](8) start like a declaration too
+      if (checkAny(PRIMITIVE_TYPES) && checkNext(TokenType.LEFT_BRACKET)) {
+        int start = current;
+        Token type = arraySuffix(advance());
+        if (check(TokenType.IDENTIFIER)) {
+          Token name = advance();
+          if (check(TokenType.LEFT_PAREN)) {
+            return functionDeclaration(type, name);
+          } else {
+            return varDeclaration(type, name);
+          }
+        }
+        current = start;
+        return statement();
+      }
+
       //check primitive type
-      if (match(TokenType.TYPE_NUMBER, TokenType.TYPE_STRING, TokenType.TYPE_BOOLEAN, TokenType.TYPE_VOID)) {
+      if (matchAny(DECLARATION_TYPES)) {
         Token type = previous();
         Token name = consume(TokenType.IDENTIFIER, "Expect name.");
 
@@ -53,8 +180,13 @@ public class Parser {
       }
 
       // check custom type (CLASSES)
-      if (check(TokenType.IDENTIFIER) && checkNext(TokenType.IDENTIFIER)) { 
-        Token type = advance();
+      if (check(TokenType.IDENTIFIER) && (checkNext(TokenType.IDENTIFIER) || checkArrayType(current + 1))) { 
+        int start = current;
+        Token type = arraySuffix(advance());
+        if (!check(TokenType.IDENTIFIER)) {
+          current = start; // Point[](4)...
+          return statement();
+        }
         Token name = consume(TokenType.IDENTIFIER, "Expect name.");
         if (check(TokenType.LEFT_PAREN)) {
           return functionDeclaration(type, name);
@@ -65,11 +197,28 @@ public class Parser {
 
       return statement();
     } catch (ParseError error) {
+      if (tooDeep) {
+        // recovering inside a tree that deep would report an error at every level of it
+        if (nesting > 0) throw error;
+        tooDeep = false;
+        while (!isAtEnd()) advance();
+        return null;
+      }
       synchronize();
       return null;
     }
   }
 
+  /**
+   * import "path/to/module.kali"; the path is relative to the importing file, see ModuleLoader.
+   */
+  private Stmt importDeclaration() {
+    Token keyword = previous();
+    Token path = consume(TokenType.STRING, "Expect module path string after 'import'.");
+    consume(TokenType.SEMICOLON, "Expect ';' after import.");
+    return new Stmt.Import(keyword, path);
+  }
+
   private Stmt classDeclaration() {
     Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
 
@@ -90,10 +239,17 @@ public class Parser {
         Token type = previous();
         Token memberName = consume(TokenType.IDENTIFIER, "Expect member name.");
         methods.add((Stmt.Function)functionDeclaration(type, memberName));
+        continue;
       }
 
-      if (match(TokenType.TYPE_NUMBER, TokenType.TYPE_STRING, TokenType.TYPE_BOOLEAN, TokenType.IDENTIFIER)) {
-        Token type = previous();
+      Token type = null;
+      if (matchAny(MEMBER_TYPES)) {
+        type = arraySuffix(previous());
+      } else if (checkAny(COMPOUND_TYPES)) {
+        type = arraySuffix(compoundType());
+      }
+
+      if (type != null) {
         Token memberName = consume(TokenType.IDENTIFIER, "Expect member name.");
         
         if (check(TokenType.LEFT_PAREN)) {
@@ -120,10 +276,16 @@ public class Parser {
         if (parameters.size() >= 255) {
           error(peek(), "Can't have more than 255 parameters.");
         }
-        if(match(TokenType.TYPE_NUMBER, TokenType.TYPE_STRING, TokenType.TYPE_BOOLEAN)) {
-            paramTypes.add(previous());
+        if(matchAny(PRIMITIVE_TYPES)) {
+            paramTypes.add(arraySuffix(previous()));
             consume(TokenType.IDENTIFIER, "Expect parameter name.");
             parameters.add(previous());
+        } else if (checkAny(COMPOUND_TYPES)) {
+            paramTypes.add(arraySuffix(compoundType()));
+            parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+        } else if (check(TokenType.IDENTIFIER) && checkArrayType(current + 1)) {
+            paramTypes.add(arraySuffix(advance())); // arrays of objects, e.g. Point[]
+            parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
         } else {
             error(peek(), "Expect parameter type.");
         }
@@ -136,6 +298,51 @@ public class Parser {
     return new Stmt.Function(name, type, parameters, paramTypes, body);
   }
 
+  /**
+   * A compound type annotation, task<T>, channel<T> or map<K, V>, starting at the current token.
+   */
+  private Token compoundType() {
+    Token keyword = advance();
+    consume(TokenType.LESS, "Expect '<' after '" + keyword.lexeme + "'.");
+    List<Token> arguments = new ArrayList<>();
+    do {
+      arguments.add(typeArgument());
+    } while (match(TokenType.COMMA));
+
+    int expected = keyword.type == TokenType.TYPE_MAP ? 2 : 1;
+    if (arguments.size() != expected) {
+      throw error(previous(), "Expect " + expected + " type argument" + (expected == 1 ? "" : "s")
+          + " for '" + keyword.lexeme + "'.");
+    }
+    consume(TokenType.GREATER, "Expect '>' after type argument.");
+    return new TypeToken(keyword, arguments);
+  }
+
+  private Token typeArgument() {
+    if (checkAny(COMPOUND_TYPES)) return arraySuffix(compoundType());
+    if (matchAny(DECLARATION_TYPES) || match(TokenType.IDENTIFIER)) return arraySuffix(previous());
+    throw error(peek(), "Expect type argument.");
+  }
+
+  /**
+   * Wraps a type in one array type per '[]' that follows it: number[][] is an array of number[].
+   */
+  private Token arraySuffix(Token type) {
+    while (checkArrayType(current)) {
+      Token bracket = advance();
+      advance();
+      type = new TypeToken(TypeToken.keyword(TokenType.TYPE_ARRAY, bracket.line), Collections.singletonList(type));
+    }
+    return type;
+  }
+
+  /** Whether the tokens at index are '[' ']', which only ever appear in an array type. */
+  private boolean checkArrayType(int index) {
+    return (index + 1 < tokens.size() || scan(index + 1))
+        && tokens.get(index).type == TokenType.LEFT_BRACKET
+        && tokens.get(index + 1).type == TokenType.RIGHT_BRACKET;
+  }
+
   private Stmt varDeclaration(Token type, Token name) {
     Expr initializer = null;
     if (match(TokenType.EQUAL)) {
@@ -147,14 +354,20 @@ public class Parser {
   }
 
   private Stmt statement() {
-    if (match(TokenType.FOR)) return forStatement();
-    if (match(TokenType.IF)) return ifStatement();
-    if (match(TokenType.RETURN)) return returnStatement();
-    if (match(TokenType.PRINT)) return printStatement();
-    if (match(TokenType.WHILE)) return whileStatement();
-    if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
-    
-    return expressionStatement();
+    try {
+      nest();
+      if (match(TokenType.FOR)) return forStatement();
+      if (match(TokenType.PARALLEL)) return parallelForStatement();
+      if (match(TokenType.IF)) return ifStatement();
+      if (match(TokenType.RETURN)) return returnStatement();
+      if (match(TokenType.PRINT)) return printStatement();
+      if (match(TokenType.WHILE)) return whileStatement();
+      if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
+
+      return expressionStatement();
+    } finally {
+      nesting--;
+    }
   }
 
   /**
@@ -176,7 +389,7 @@ public class Parser {
 
     if (match(TokenType.SEMICOLON)) {
       initializer = null;
-    } else if (match(TokenType.TYPE_STRING, TokenType.TYPE_BOOLEAN, TokenType.TYPE_NUMBER)) {
+    } else if (matchAny(PRIMITIVE_TYPES)) {
       Token type = previous();
       Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
       initializer = varDeclaration(type, name);
@@ -217,6 +430,48 @@ public class Parser {
     return body;
   }
 
+  /**
+   * parallel for (number i = from; i < to) reduce(+: sum, *: product) body
+   * The range is fixed up front, there is no increment clause: i takes every whole step from `from`
+   * up to, not including, `to`. The reduce clause is optional.
+   */
+  private Stmt parallelForStatement() {
+    Token keyword = previous();
+    consume(TokenType.FOR, "Expect 'for' after 'parallel'.");
+    consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+    consume(TokenType.TYPE_NUMBER, "Expect a number loop variable.");
+    Token variable = consume(TokenType.IDENTIFIER, "Expect variable name.");
+    consume(TokenType.EQUAL, "Expect '=' after loop variable.");
+    Expr from = expression();
+    consume(TokenType.SEMICOLON, "Expect ';' after range start.");
+
+    Token bound = consume(TokenType.IDENTIFIER, "Expect loop variable in loop condition.");
+    if (!bound.lexeme.equals(variable.lexeme)) {
+      throw error(bound, "Expect loop variable in loop condition.");
+    }
+    consume(TokenType.LESS, "Expect '<' after loop variable.");
+    Expr to = expression();
+    consume(TokenType.RIGHT_PAREN, "Expect ')' after parallel for range.");
+
+    List<Token> operators = new ArrayList<>();
+    List<Expr.Variable> reductions = new ArrayList<>();
+    if (match(TokenType.REDUCE)) {
+      consume(TokenType.LEFT_PAREN, "Expect '(' after 'reduce'.");
+      do {
+        if (!match(TokenType.PLUS) && !match(TokenType.STAR)) {
+          throw error(peek(), "Expect '+' or '*' reduction.");
+        }
+        operators.add(previous());
+        consume(TokenType.COLON, "Expect ':' after reduction operator.");
+        reductions.add(new Expr.Variable(consume(TokenType.IDENTIFIER, "Expect variable name.")));
+      } while (match(TokenType.COMMA));
+      consume(TokenType.RIGHT_PAREN, "Expect ')' after reductions.");
+    }
+
+    Stmt body = statement();
+    return new Stmt.ParallelFor(keyword, variable, from, to, operators, reductions, body);
+  }
+
   private Stmt returnStatement(){
     Token keyword = previous();
     Expr value = null;
@@ -268,123 +523,175 @@ public class Parser {
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
 
-    while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-      statements.add(declaration());
+    try {
+      nest(); // function bodies nest without a statement in between
+      while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+        statements.add(declaration());
+      }
+    } finally {
+      nesting--;
     }
 
     consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
     return statements;
   }
 
+  /** Enters one more level of statements; the caller leaves it with nesting--. */
+  private void nest() {
+    if (++nesting > MAX_NESTING) throw tooDeep(peek(), "Statements nested too deeply.");
+  }
+
   // --- Expressions ---
 
+  /**
+   * Parses an expression with operator precedence (Pratt style), driven by the INFIX table.
+   * Instead of recursing once per precedence level, pending operators and their left operands
+   * are kept on explicit stacks and reduced when an operator of lower (or, for left-associative
+   * operators, equal) precedence shows up. Parenthesised groups are pushed as a marker, so
+   * deeply nested machine-generated expressions do not grow the Java stack.
+   *
+   * The stacks are shared by nested calls (e.g. call arguments); each call only touches
+   * the part above the height it started with.
+   */
   private Expr expression() {
-    return assignment();
-  }
+    int operatorBase = operatorTop;
+    int operandBase = operandTop;
+    int openGroups = 0;
 
-  private Expr assignment() {
-    Expr expr = or();
+    try {
+      for (;;) {
+        // prefix position: unary operators and '(' wait on the stack for their operand
+        if (checkAny(PREFIX_OPERATORS)) {
+          pushOperator(advance(), PREC_UNARY);
+          continue;
+        }
+        if (match(TokenType.LEFT_PAREN)) {
+          pushOperator(previous(), PREC_NONE);
+          openGroups++;
+          continue;
+        }
 
-    if (match(TokenType.EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable)expr).name;
-        return new Expr.Assign(name, value);
-      } else if (expr instanceof Expr.Get) {
-        Expr.Get get = (Expr.Get)expr;
-        return new Expr.Set(get.object, get.name, value); //(object, name, and the value it is reassigning)
+        Expr operand = postfix(primary());
+
+        // infix position: fold everything that binds tighter, then push the operator
+        for (;;) {
+          int precedence = isAtEnd() ? PREC_NONE : INFIX[peek().type.ordinal()];
+          if (precedence != PREC_NONE) {
+            operand = reduce(operatorBase, precedence, operand);
+            pushOperand(operand);
+            pushOperator(advance(), precedence);
+            break;
+          }
+
+          if (openGroups > 0 && check(TokenType.RIGHT_PAREN)) {
+            operand = reduce(operatorBase, PREC_NONE, operand);
+            operatorTop--; // the '(' marker
+            openGroups--;
+            above(height, advance());
+            operand = postfix(new Expr.Grouping(operand));
+            continue;
+          }
+
+          operand = reduce(operatorBase, PREC_NONE, operand);
+          if (openGroups > 0) {
+            throw error(peek(), "Expect ')' after expression.");
+          }
+          return operand;
+        }
       }
-
-      error(equals, "Invalid assignment target."); 
-    }
-
-    return expr;
-  }
-
-  private Expr or() {
-    Expr expr = and();
-
-    while (match(TokenType.OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  private Expr and() {
-    Expr expr = equality();
-
-    while (match(TokenType.AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
+    } finally {
+      clearStacks(operatorBase, operandBase);
     }
-    return expr;
   }
 
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
+  /**
+   * Pops and applies every pending operator above the base that binds at least as tight as the
+   * incoming one. Assignment is the only right-associative operator, so an '=' on the stack is
+   * left alone when another '=' arrives. Group markers have PREC_NONE and are never popped here.
+   * @param right the operand to the right of the pending operators
+   * @return the folded expression
+   */
+  private Expr reduce(int operatorBase, int precedence, Expr right) {
+    while (operatorTop > operatorBase) {
+      int top = precedences[operatorTop - 1];
+      if (top == PREC_NONE || top < precedence) break;
+      if (top == precedence && precedence == PREC_ASSIGNMENT) break;
+
+      Token operator = operators[--operatorTop];
+      if (top == PREC_UNARY) {
+        right = prefix(operator, right);
+        above(height, operator);
+      } else {
+        right = combine(operands[--operandTop], operator, right);
+        above(Math.max(heights[operandTop], height), operator);
+      }
     }
-
-    return expr;
-  }
-
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(TokenType.MINUS, TokenType.PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
+    return right;
+  }
+
+  private Expr prefix(Token operator, Expr right) {
+    switch (operator.type) {
+      case SPAWN:
+        if (right instanceof Expr.Call) return new Expr.Spawn(operator, (Expr.Call)right);
+        error(operator, "Expect a function call after 'spawn'.");
+        return right;
+      case AWAIT:
+        return new Expr.Await(operator, right);
+      default:
+        return new Expr.Unary(operator, right);
     }
-
-    return expr;
   }
 
-  private Expr factor() {
-    Expr expr = unary();
+  private Expr combine(Expr left, Token operator, Expr right) {
+    switch (operator.type) {
+      case EQUAL:
+        if (left instanceof Expr.Variable) {
+          Token name = ((Expr.Variable)left).name;
+          return new Expr.Assign(name, right);
+        } else if (left instanceof Expr.Get) {
+          Expr.Get get = (Expr.Get)left;
+          return new Expr.Set(get.object, get.name, right); //(object, name, and the value it is reassigning)
+        } else if (left instanceof Expr.Index) {
+          Expr.Index index = (Expr.Index)left;
+          return new Expr.IndexSet(index.object, index.bracket, index.index, right);
+        }
 
-    while (match(TokenType.SLASH, TokenType.STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
+        error(operator, "Invalid assignment target.");
+        return left;
+      case OR:
+      case AND:
+        return new Expr.Logical(left, operator, right);
+      default:
+        return new Expr.Binary(left, operator, right);
     }
-
-    return expr;
   }
 
-  private Expr unary() {
-    if (match(TokenType.BANG, TokenType.MINUS, TokenType.DOUBLE_PLUS, TokenType.DOUBLE_MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
+  /**
+   * Applies the postfix forms that bind tighter than any prefix operator:
+   * calls, property access, indexing and finally a trailing '++' / '--'.
+   */
+  private Expr postfix(Expr expr) {
+    while (true) {
+      if (match(TokenType.LEFT_PAREN)) { //opening of functions;
+        expr = finishCall(expr);
+      } else if (match(TokenType.DOT)) {
+        Token name = consume(TokenType.IDENTIFIER,"Expect property name after '.'."); //fields name in class scope
+        above(height, name);
+        expr = new Expr.Get(expr, name);
+      } else if (match(TokenType.LEFT_BRACKET)) {
+        int object = height;
+        Expr index = expression();
+        Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+        above(Math.max(object, height), bracket);
+        expr = new Expr.Index(expr, bracket, index);
+      } else {
+        break;
+      }
     }
 
-    Expr expr = call();
-
-    if (match(TokenType.DOUBLE_PLUS, TokenType.DOUBLE_MINUS)) {
+    if (matchAny(POSTFIX_OPERATORS)) {
       Token operator = previous();
+      above(height, operator);
       return new Expr.UnaryPost(expr, operator); //we count this as special Unary where the operator comes after an expression
     }
 
@@ -392,7 +699,17 @@ public class Parser {
   }
 
   private Expr finishCall(Expr callee) {
+    int function = height;
+    List<Expr> arguments = arguments();
+    Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments");
+    above(Math.max(function, height), paren);
+    return new Expr.Call(callee, paren, arguments);
+  }
+
+  /** Parses call arguments, leaving the height of the tallest one, or 0, in height. */
+  private List<Expr> arguments() {
     List<Expr> arguments = new ArrayList<>();
+    int tallest = 0;
     if (!check(TokenType.RIGHT_PAREN)) {
       do {
         //max argument as java
@@ -400,36 +717,20 @@ public class Parser {
           error(peek(), "Can't have more than 255 arguments.");
         }
         arguments.add(expression());
+        tallest = Math.max(tallest, height);
       } while (match(TokenType.COMMA));
     }
-
-    Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments");
-    return new Expr.Call(callee, paren, arguments);
-  }
-
-  private Expr call() { //we check callable right, if it  is not a function then it is probably a class identifier
-    Expr expr = primary();
-
-    while (true) {
-      if (match(TokenType.LEFT_PAREN)) { //opening of functions;
-        expr = finishCall(expr);
-      } else if (match(TokenType.DOT)) {
-        Token name = consume(TokenType.IDENTIFIER,"Expect property name after '.'."); //fields name in class scope
-        expr = new Expr.Get(expr, name);
-      } else {
-        break;
-      }
-    }
-
-    return expr;
+    height = tallest;
+    return arguments;
   }
 
   private Expr primary() {
+    height = 1;
     if (match(TokenType.FALSE)) return new Expr.Literal(false);
     if (match(TokenType.TRUE)) return new Expr.Literal(true);
     if (match(TokenType.NIL)) return new Expr.Literal(null);
 
-    if (match(TokenType.NUMBER, TokenType.STRING)) {
+    if (matchAny(LITERALS)) {
       return new Expr.Literal(previous().literal);
     }
 
@@ -442,17 +743,70 @@ public class Parser {
     if (match(TokenType.THIS)) return new Expr.This(previous());
     
 
+    // construction of a built-in compound type, e.g. channel<number>(16) or Point[](8)
+    if (checkAny(COMPOUND_TYPES)) return construct(arraySuffix(compoundType()));
+    if ((checkAny(PRIMITIVE_TYPES) || check(TokenType.IDENTIFIER)) && checkArrayType(current + 1)) {
+      return construct(arraySuffix(advance()));
+    }
+
     if (match(TokenType.IDENTIFIER)) {
       return new Expr.Variable(previous());
     }
 
-    if (match(TokenType.LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
+    throw error(peek(), "Expect expression.");
+  }
+
+  private Expr construct(Token type) {
+    consume(TokenType.LEFT_PAREN, "Expect '(' after type.");
+    List<Expr> arguments = arguments();
+    Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments");
+    above(height, paren);
+    return new Expr.Construct(type, paren, arguments);
+  }
+
+  // --- Expression Stacks ---
+
+  private void pushOperand(Expr operand) {
+    if (operandTop == operands.length) {
+      operands = Arrays.copyOf(operands, operandTop * 2);
+      heights = Arrays.copyOf(heights, operandTop * 2);
     }
+    heights[operandTop] = height;
+    operands[operandTop++] = operand;
+  }
 
-    throw error(peek(), "Expect expression.");
+  /**
+   * Notes the height of the node being built over children at most the given height tall, and
+   * reports it when, with the statements around it, it nests deeper than MAX_NESTING.
+   */
+  private void above(int children, Token token) {
+    height = children + 1;
+    if (nesting + height > MAX_NESTING) throw tooDeep(token, "Expression nested too deeply.");
+  }
+
+  private ParseError tooDeep(Token token, String message) {
+    tooDeep = true;
+    return error(token, message);
+  }
+
+  private void pushOperator(Token operator, int precedence) {
+    if (operatorTop == operators.length) {
+      operators = Arrays.copyOf(operators, operatorTop * 2);
+      precedences = Arrays.copyOf(precedences, operatorTop * 2);
+    }
+    operators[operatorTop] = operator;
+    precedences[operatorTop++] = precedence;
+  }
+
+  /**
+   * Drops everything an expression() call left above its base, also after a parse error,
+   * so the stacks do not keep finished nodes alive.
+   */
+  private void clearStacks(int operatorBase, int operandBase) {
+    Arrays.fill(operators, operatorBase, operatorTop, null);
+    Arrays.fill(operands, operandBase, operandTop, null);
+    operatorTop = operatorBase;
+    operandTop = operandBase;
   }
 
   // --- Helpers ---
@@ -465,8 +819,10 @@ public class Parser {
 
       switch (peek().type) {
         case CLASS:
+        case IMPORT:
         case FUN:
         case FOR:
+        case PARALLEL:
         case IF:
         case WHILE:
         case PRINT:
@@ -479,21 +835,49 @@ public class Parser {
   }
 
   /**
-   * Match type of the current, if any of the type match, then it will advance and return true
-   * @param types list of type that is needed for checking
+   * Match type of the current, if it matches, then it will advance and return true
+   * @param type type that is needed for checking
    * @return true or false of the current token type
    */
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      advance();
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Same as match, but for any type in a set built with setOf.
+   */
+  private boolean matchAny(long types) {
+    if (checkAny(types)) {
+      advance();
+      return true;
     }
 
     return false;
   }
 
+  private boolean checkAny(long types) {
+    if (isAtEnd()) return false;
+    // setOf only takes the first 64 types; a later one is in no set, rather than wrapping around
+    int ordinal = peek().type.ordinal();
+    return ordinal < Long.SIZE && (types & (1L << ordinal)) != 0;
+  }
+
+  private static long setOf(TokenType... types) {
+    long set = 0;
+    for (TokenType type : types) {
+      if (type.ordinal() >= Long.SIZE) {
+        throw new IllegalStateException("Token sets only hold the first 64 token types.");
+      }
+      set |= 1L << type.ordinal();
+    }
+    return set;
+  }
+
   /**
    * Consumes the next token, check the types to and advances.
    * @param type type to be compared with the current token
@@ -517,7 +901,7 @@ public class Parser {
 
   private boolean checkNext(TokenType type) {
     if (isAtEnd()) return false;
-    if (current + 1 >= tokens.size()) return false;
+    if (current + 1 >= tokens.size() && !scan(current + 1)) return false;
     return tokens.get(current + 1).type == type;
   }
 
@@ -543,9 +927,22 @@ public class Parser {
    * @return
    */
   private Token peek() {
+    if (current == tokens.size()) scan(current);
     return tokens.get(current);
   }
 
+  /**
+   * Scans tokens up to the given index, when reading from a scanner and not past EOF yet.
+   * @return whether there is a token at index now
+   */
+  private boolean scan(int index) {
+    if (scanner == null) return false;
+    while (index >= tokens.size() && (tokens.isEmpty() || tokens.get(tokens.size() - 1).type != TokenType.EOF)) {
+      tokens.add(scanner.nextToken());
+    }
+    return index < tokens.size();
+  }
+
   /**
    * peek the previous token without going backward
    * @return
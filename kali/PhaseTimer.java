@@ -0,0 +1,32 @@
+package kali;
+
+/**
+ * Times one step of the pipeline (scan, parse, resolve, typecheck, interpret) for KaliStats and
+ * as a KaliEvents.Phase. start returns null when neither is on, so a phase costs a null check:
+ *
+ * <pre>
+ *   PhaseTimer phase = PhaseTimer.start("parse");
+ *   ...
+ *   if (phase != null) phase.stop();
+ * </pre>
+ */
+final class PhaseTimer {
+  private final String name;
+  private final long started;
+  private final KaliEvents.Phase event;
+
+  private PhaseTimer(String name) {
+    this.name = name;
+    this.event = KaliEvents.ENABLED ? KaliEvents.Phase.start(name) : null;
+    this.started = System.nanoTime();
+  }
+
+  static PhaseTimer start(String name) {
+    return KaliStats.ENABLED || KaliEvents.ENABLED ? new PhaseTimer(name) : null;
+  }
+
+  void stop() {
+    if (KaliStats.ENABLED) KaliStats.phase(name, System.nanoTime() - started);
+    if (event != null) event.commit();
+  }
+}
@@ -0,0 +1,194 @@
+package kali;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for Kali code (--profile).
+ *
+ * Every interpreter of a profiled program keeps a Stack of the Kali functions it is in, with the
+ * line each of them is at: the call site for the callers, the last call, assignment or operator
+ * evaluated for the innermost one. A daemon thread reads all stacks every millisecond and counts
+ * what it sees, so a Java profiler's view of visitBinaryExpr and accept frames becomes fib and
+ * line 5.
+ *
+ * Stacks are written without synchronization, so the sampler may now and then see a frame that is
+ * being pushed or popped. For a statistical profiler that is fine, and it keeps a call down to two
+ * array stores and an increment.
+ */
+final class Profiler {
+  private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int REPORT_ROWS = 20;
+
+  /** The Kali call stack of one interpreter. */
+  final class Stack {
+    private String[] functions = new String[32];
+    private int[] lines = new int[32];
+    private int depth = 0;
+
+    private Stack() {}
+
+    void push(String function, int line) {
+      if (depth == functions.length) {
+        // grow lines first: a sampler that sees the new functions never reads past lines
+        lines = Arrays.copyOf(lines, depth * 2);
+        functions = Arrays.copyOf(functions, depth * 2);
+      }
+      functions[depth] = function;
+      lines[depth] = line;
+      depth++;
+    }
+
+    void pop() {
+      depth--;
+    }
+
+    /** Moves the innermost frame to the given line. */
+    void line(int line) {
+      lines[depth - 1] = line;
+    }
+
+    /**
+     * A stack for an interpreter that runs on behalf of this one (a spawned task or a parallel for
+     * range), starting with a copy of the frames of this one. Close it when that interpreter is done.
+     */
+    Stack fork() {
+      Stack stack = new Stack();
+      for (int i = 0; i < depth; i++) stack.push(functions[i], lines[i]);
+      stacks.add(stack);
+      return stack;
+    }
+
+    void close() {
+      stacks.remove(this);
+    }
+  }
+
+  private final Set<Stack> stacks = ConcurrentHashMap.newKeySet();
+  private final Thread sampler;
+  private volatile boolean running = true;
+
+  // Only touched by the sampler, and read after it stopped.
+  private long samples = 0;
+  private final Map<String, Long> folded = new HashMap<>();
+  private final Map<String, long[]> functionTimes = new HashMap<>();
+  private final Map<String, long[]> lineTimes = new HashMap<>();
+
+  Profiler() {
+    sampler = new Thread(this::sample, "kali-profiler");
+    sampler.setDaemon(true);
+  }
+
+  /** Starts sampling; the stack is for the interpreter running the script. */
+  Stack start() {
+    Stack stack = new Stack();
+    stack.push("<script>", 0);
+    stacks.add(stack);
+    sampler.start();
+    return stack;
+  }
+
+  /** Stops sampling and waits for the last sample. */
+  void stop() {
+    running = false;
+    try {
+      sampler.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sample() {
+    StringBuilder key = new StringBuilder();
+    Set<String> seen = new HashSet<>();
+    while (running) {
+      LockSupport.parkNanos(INTERVAL);
+      for (Stack stack : stacks) {
+        int[] lines = stack.lines;
+        String[] functions = stack.functions;
+        int depth = Math.min(stack.depth, Math.min(functions.length, lines.length));
+        if (depth == 0) continue;
+
+        samples++;
+        key.setLength(0);
+        seen.clear();
+        for (int i = 0; i < depth; i++) {
+          String function = functions[i] == null ? "?" : functions[i];
+          String line = function + " line " + lines[i];
+          if (i > 0) key.append(';');
+          key.append(function);
+          boolean leaf = i == depth - 1;
+          count(functionTimes, function, leaf, seen.add(function));
+          count(lineTimes, line, leaf, seen.add(line));
+        }
+        folded.merge(key.toString(), 1L, Long::sum);
+      }
+    }
+  }
+
+  /** Adds a sample to key's {self, total} counts; recursion counts once toward total. */
+  private static void count(Map<String, long[]> times, String key, boolean self, boolean total) {
+    if (!self && !total) return;
+    long[] counts = times.computeIfAbsent(key, k -> new long[2]);
+    if (self) counts[0]++;
+    if (total) counts[1]++;
+  }
+
+  /**
+   * Writes the samples in collapsed-stack format, one "a;b;c count" line per distinct stack, which
+   * flamegraph.pl and speedscope read.
+   */
+  void writeFolded(Path file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : folded.entrySet()) {
+      lines.add(entry.getKey() + " " + entry.getValue());
+    }
+    lines.sort(null);
+    Files.write(file, lines);
+  }
+
+  /** Prints the functions and lines with the most self time, with their total time. */
+  void report(PrintWriter out) {
+    out.println("Profile: " + samples + " samples, one every " + TimeUnit.NANOSECONDS.toMillis(INTERVAL) + " ms");
+    table(out, "function", functionTimes);
+    table(out, "line", lineTimes);
+    out.flush();
+  }
+
+  private void table(PrintWriter out, String heading, Map<String, long[]> times) {
+    List<Map.Entry<String, long[]>> rows = new ArrayList<>(times.entrySet());
+    rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+      ? Long.compare(b.getValue()[0], a.getValue()[0])
+      : Long.compare(b.getValue()[1], a.getValue()[1]));
+
+    out.println();
+    out.println(String.format("%7s %7s  %s", "self%", "total%", heading));
+    for (Map.Entry<String, long[]> row : rows.subList(0, Math.min(REPORT_ROWS, rows.size()))) {
+      out.println(String.format("%7.1f %7.1f  %s", percent(row.getValue()[0]), percent(row.getValue()[1]), row.getKey()));
+    }
+  }
+
+  private double percent(long count) {
+    return samples == 0 ? 0 : 100.0 * count / samples;
+  }
+
+  /** The frame name of a callee. */
+  static String name(KaliCallable function) {
+    if (function instanceof KaliFunction) return ((KaliFunction)function).declaration.name.lexeme;
+    if (function instanceof KaliNative) return ((KaliNative)function).name;
+    if (function instanceof KaliClass) return ((KaliClass)function).name;
+    return function.toString();
+  }
+}
@@ -0,0 +1,140 @@
+package kali;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * On-disk cache of checked programs, so unchanged scripts skip scanning, parsing, resolving and type checking.
+ *
+ * A cache file holds the AST of a program that passed every front-end phase, together with the
+ * scope distances the Resolver put on its nodes. It is keyed by the SHA-256 of the source:
+ * a file whose hash or format version does not match is ignored and rewritten.
+ *
+ * Scanning, parsing and resolving only depend on the source, but type checking a module also depends
+ * on the modules it imports. So each entry also records the ModuleLoader key the module was checked
+ * against; when that no longer matches, the cached AST is still used but the module is checked again.
+ *
+ * Files go next to the script (foo.kali -> foo.kali.kalic), or into the directory named by the
+ * kali.cache.dir system property as <hash>.kalic.
+ *
+ * Layout (big-endian): magic, format version, source hash, checked key, then the program as a
+ * FlatAst, whose arrays carry the scope distances too and are read back in bulk. A loaded program
+ * keeps its function bodies in those arrays until they are called.
+ */
+class ProgramCache {
+  private static final int MAGIC = 0x4b414c43; // "KALC"
+  /** Bump whenever the node list in GenerateAst, the layout below or what a token holds changes. */
+  private static final int FORMAT_VERSION = 9;
+  private static final int HASH_BYTES = 32;
+
+  /** A cached program and the key it was type checked against. */
+  static class Entry {
+    final List<Stmt> statements;
+    final byte[] checkedKey;
+
+    Entry(List<Stmt> statements, byte[] checkedKey) {
+      this.statements = statements;
+      this.checkedKey = checkedKey;
+    }
+  }
+
+  /**
+   * Loads the cached program for a source, scope distances included. Function bodies are built
+   * when first used, see FlatAst.Body.
+   * @param script Path of the script the source was read from.
+   * @param source The current contents of the script.
+   * @return The cached entry, or null if there is no valid cache entry.
+   */
+  static Entry load(Path script, ByteBuffer source) {
+    byte[] hash = hash(source);
+    Path file = cacheFile(script, hash);
+    if (!Files.isRegularFile(file)) return null;
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+
+      byte[] cachedHash = new byte[HASH_BYTES];
+      buffer.get(cachedHash);
+      if (!Arrays.equals(hash, cachedHash)) return null;
+
+      byte[] checkedKey = new byte[HASH_BYTES];
+      buffer.get(checkedKey);
+      FlatAst program = FlatAst.read(buffer);
+      if (buffer.hasRemaining()) return null; // trailing bytes, not a file we wrote
+      return new Entry(program.decode(), checkedKey);
+    } catch (IOException | RuntimeException error) {
+      return null; // a truncated or foreign file is just a miss
+    }
+  }
+
+  /**
+   * Writes a checked program to the cache. Failing to write (read-only directory, full disk)
+   * is not an error; the next run simply compiles again.
+   * @param checkedKey The key the program was type checked against, see ModuleLoader.
+   */
+  static void store(Path script, ByteBuffer source, byte[] checkedKey, List<Stmt> statements) {
+    byte[] hash = hash(source);
+    Path file = cacheFile(script, hash).toAbsolutePath();
+    Path temporary = null;
+
+    try {
+      FlatAst program = FlatAst.encode(statements);
+
+      // a name of its own, so processes storing the same script at once don't write into one file
+      temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+      try (OutputStream stream = Files.newOutputStream(temporary)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(hash);
+        out.write(checkedKey);
+        program.writeTo(out);
+        out.flush();
+      }
+      // readers never see a half-written file
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException error) {
+      try {
+        if (temporary != null) Files.deleteIfExists(temporary);
+      } catch (IOException ignored) {
+        // nothing left to clean up
+      }
+    }
+  }
+
+  private static Path cacheFile(Path script, byte[] hash) {
+    String directory = System.getProperty("kali.cache.dir");
+    if (directory != null) {
+      StringBuilder name = new StringBuilder();
+      for (byte b : hash) name.append(String.format("%02x", b));
+      return Paths.get(directory).resolve(name + ".kalic");
+    }
+    return script.resolveSibling(script.getFileName() + ".kalic");
+  }
+
+  static byte[] hash(ByteBuffer source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(source.duplicate().clear());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException("SHA-256 is not available.", error);
+    }
+  }
+}
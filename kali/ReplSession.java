@@ -0,0 +1,54 @@
+package kali;
+
+import java.util.List;
+
+/**
+ * One interactive session: every input is compiled against everything entered before it.
+ *
+ * The Resolver, TypeChecker and Interpreter live as long as the session, so declarations from earlier
+ * lines stay visible to both the checks and the program. The error state of the KaliContext is reset
+ * after every input, so one bad line does not end the session.
+ */
+class ReplSession {
+  private final KaliContext context;
+  private final Interpreter interpreter;
+  private final Resolver resolver;
+  private final TypeChecker typeChecker = new TypeChecker();
+
+  ReplSession(KaliContext context) {
+    this.context = context;
+    this.interpreter = context.interpreter;
+    this.resolver = new Resolver();
+  }
+
+  /**
+   * Core pipeline: Scan -> Parse -> Resolve -> Type Check -> Interpret.
+   * @param source One input of the session.
+   * @return false if the input did not compile or stopped with a runtime error.
+   */
+  boolean eval(String source) {
+    // 1. Scanning and 2. Parsing
+    List<Stmt> statements = Kali.parse(new Scanner(source));
+
+    try {
+      // Stop if scanning or parsing failed
+      if (context.hadError) return false;
+
+      // 3. Resolution (Variable binding)
+      resolver.resolve(statements);
+      if (context.hadError) return false;
+
+      // 4. Type Checking (Static Analysis)
+      typeChecker.check(statements);
+      if (context.hadCompilationError) return false;
+
+      // 5. Interpretation (Execution)
+      interpreter.interpret(statements);
+      return !context.hadRuntimeError;
+    } finally {
+      context.hadError = false;
+      context.hadCompilationError = false;
+      context.hadRuntimeError = false;
+    }
+  }
+}
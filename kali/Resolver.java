@@ -1,8 +1,13 @@
 package kali;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import kali.Stmt.Class;
@@ -15,10 +20,49 @@ import kali.Stmt.Class;
  * The "hops" (distance) is used to determine the variable usage to its declaration.
  */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
   private final Stack<Map<String, Boolean>> scopes = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
   private ClassType currentClass = ClassType.NONE;
+  /** Index in scopes of the innermost parallel for's loop scope, -1 outside of one. */
+  private int parallelScope = -1;
+  /** The loop variable of that parallel for. */
+  private Token parallelVariable = null;
+  /** Whether a return here would leave a parallel for body, as opposed to a function declared in it. */
+  private boolean inParallelBody = false;
+  /** The reduction operators of each parallel for's loop scope, by index in scopes and name. */
+  private final Map<Integer, Map<String, Token>> reductionScopes = new HashMap<>();
+  /** The read of a reduction copy in the update being resolved, the one read of it a body may make. */
+  private Expr.Variable reductionRead = null;
+  /** What the functions, methods and classes of the module assign and call, by name. */
+  private final Map<String, Effects> effects = new HashMap<>();
+  /** The entry in effects of the function being resolved, null in top-level code. */
+  private Effects currentEffects = null;
+  /** Index in scopes of that function's parameter scope. */
+  private int functionScope = 0;
+  /** The calls made in parallel for bodies, checked once the whole module is resolved. */
+  private final List<Call> parallelCalls = new ArrayList<>();
+
+  /**
+   * What running a function (or a method, or the constructor of a class) of some name may do
+   * to variables: the first variable it assigns that it did not declare itself, and the names it
+   * calls. A call only tells the name, so everything by one name shares an entry.
+   */
+  private static class Effects {
+    Token write = null;
+    final Set<String> functions = new HashSet<>();
+    final Set<String> methods = new HashSet<>();
+  }
+
+  /** A call in a parallel for body: the function or method name it calls. */
+  private static class Call {
+    final Token name;
+    final boolean method;
+
+    Call(Token name, boolean method) {
+      this.name = name;
+      this.method = method;
+    }
+  }
 
   private enum ClassType {
     NONE,
@@ -26,10 +70,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
-
   /**
    * Entry point for resolving a list of statements.
    * Typically called with the top-level statements of the program.
@@ -38,6 +78,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     for (Stmt statement : statements) {
       resolve(statement);
     }
+    if (scopes.isEmpty() && currentEffects == null) checkParallelCalls(); // the module, not a block in it
   }
 
   private void resolve(Stmt stmt) {
@@ -84,6 +125,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     declare(stmt.name);
     define(stmt.name);
+    effectsOf(stmt.name); // calling the class is known to be safe, even without a constructor
 
     // Edge case: A class cannot inherit from itself.
     if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -129,6 +171,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    // the ModuleLoader has to see every import before anything runs
+    if (!scopes.isEmpty() || currentFunction != FunctionType.NONE) {
+      Kali.error(stmt.keyword, "Can only import at the top level of a module.");
+    }
+    return null;
+  }
+
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
     resolve(stmt.condition);
@@ -147,6 +198,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
       Kali.error(stmt.keyword, "Can't return from top-level code.");
+    } else if (inParallelBody) {
+      Kali.error(stmt.keyword, "Can't return from a parallel for.");
     }
 
     if (stmt.value != null) {
@@ -166,6 +219,64 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  /**
+   * The iterations of a parallel for run concurrently, so the body may only write variables it
+   * declares itself and the private copies of its reduction variables, which live in the loop scope
+   * next to the loop variable. That holds for the functions it calls too, whatever calls they make
+   * in turn; see checkParallelCalls.
+   *
+   * Each range starts its copies at the identity of their operator and combines them with it after
+   * the loop, which is only the sequential result when every use of a copy is an update 'x = x op e'
+   * with that operator and an e that does not read x; see checkReduction.
+   */
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    resolve(stmt.from);
+    resolve(stmt.to);
+    for (int i = 0; i < stmt.reductions.size(); i++) {
+      Expr.Variable reduction = stmt.reductions.get(i);
+      // reducing into a reduction copy of a parallel for around this one is an update with its operator
+      Token outer = reductionOperator(reduction.name);
+      if (outer != null && outer.type == stmt.operators.get(i).type) reductionRead = reduction;
+      try {
+        resolve(reduction);
+      } finally {
+        reductionRead = null;
+      }
+      checkParallelWrite(reduction.name); // combined into the outer variable after the loop
+    }
+
+    int enclosingScope = parallelScope;
+    Token enclosingVariable = parallelVariable;
+    boolean enclosingBody = inParallelBody;
+
+    beginScope();
+    declare(stmt.variable);
+    define(stmt.variable);
+    Map<String, Token> operators = new HashMap<>();
+    for (int i = 0; i < stmt.reductions.size(); i++) {
+      Token name = stmt.reductions.get(i).name;
+      declare(name);
+      define(name);
+      operators.put(name.lexeme, stmt.operators.get(i));
+    }
+
+    parallelScope = scopes.size() - 1;
+    reductionScopes.put(parallelScope, operators);
+    parallelVariable = stmt.variable;
+    inParallelBody = true;
+    try {
+      resolve(stmt.body);
+    } finally {
+      reductionScopes.remove(parallelScope);
+      endScope();
+      parallelScope = enclosingScope;
+      parallelVariable = enclosingVariable;
+      inParallelBody = enclosingBody;
+    }
+    return null;
+  }
+
   // --- Expression Visitors ---
 
   @Override
@@ -176,14 +287,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
           "Can't read local variable in its own initializer.");
     }
 
+    if (expr != reductionRead && reductionOperator(expr.name) != null) {
+      reductionMisuse(expr.name);
+    }
     resolveLocal(expr, expr.name);
     return null;
   }
 
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
-    resolve(expr.value);
+    Token operator = reductionOperator(expr.name);
+    if (operator != null) {
+      checkReduction(expr, operator);
+    } else {
+      resolve(expr.value);
+    }
     resolveLocal(expr, expr.name);
+    checkWrite(expr.name);
     return null;
   }
 
@@ -196,12 +316,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitCallExpr(Expr.Call expr) {
+    // a snapshot can only resume at a top-level statement
+    if (expr.callee instanceof Expr.Variable
+        && ((Expr.Variable)expr.callee).name.lexeme.equals("snapshot")
+        && (!scopes.isEmpty() || currentFunction != FunctionType.NONE)) {
+      Kali.error(expr.paren, "Can't call snapshot() outside of top-level code.");
+    }
+
     resolve(expr.callee);
 
     for (Expr argument : expr.arguments) {
       resolve(argument);
     }
 
+    if (expr.callee instanceof Expr.Variable) {
+      recordCall(((Expr.Variable)expr.callee).name, false);
+    } else if (expr.callee instanceof Expr.Get) {
+      recordCall(((Expr.Get)expr.callee).name, true);
+    } else if (expr.callee instanceof Expr.Super) {
+      recordCall(((Expr.Super)expr.callee).method, true);
+    }
     return null;
   }
 
@@ -211,6 +345,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitSpawnExpr(Expr.Spawn expr) {
+    resolve(expr.call);
+    return null;
+  }
+
+  @Override
+  public Void visitAwaitExpr(Expr.Await expr) {
+    resolve(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitConstructExpr(Expr.Construct expr) {
+    for (Expr argument : expr.arguments) {
+      resolve(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexSetExpr(Expr.IndexSet expr) {
+    resolve(expr.value);
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
   @Override
   public Void visitSetExpr(Expr.Set expr) {
     resolve(expr.value);
@@ -262,12 +431,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitUnaryExpr(Expr.Unary expr) {
     resolve(expr.right);
+    if (isIncrement(expr.operator) && expr.right instanceof Expr.Variable) {
+      checkWrite(((Expr.Variable)expr.right).name);
+    }
     return null;
   }
 
   @Override
   public Void visitUnaryPostExpr(Expr.UnaryPost expr) {
     resolve(expr.left);
+    if (isIncrement(expr.operator) && expr.left instanceof Expr.Variable) {
+      checkWrite(((Expr.Variable)expr.left).name);
+    }
     return null;
   }
 
@@ -275,9 +450,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   private void resolveFunction(Stmt.Function function, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
+    boolean enclosingBody = inParallelBody;
+    Effects enclosingEffects = currentEffects;
+    int enclosingScope = functionScope;
     currentFunction = type;
+    inParallelBody = false;
+    currentEffects = effectsOf(function.name);
 
     beginScope();
+    functionScope = scopes.size() - 1;
     for (Token param : function.params) {
       declare(param);
       define(param);
@@ -286,6 +467,152 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     endScope();
 
     currentFunction = enclosingFunction;
+    inParallelBody = enclosingBody;
+    currentEffects = enclosingEffects;
+    functionScope = enclosingScope;
+  }
+
+  private Effects effectsOf(Token name) {
+    return effects.computeIfAbsent(name.lexeme, key -> new Effects());
+  }
+
+  /** Checks an assignment for parallel for bodies, and notes it when it writes outside the function. */
+  private void checkWrite(Token name) {
+    checkParallelWrite(name);
+    // in a parallel for, the write was just checked where it stands, which is all it takes
+    if (currentEffects == null || currentEffects.write != null || parallelScope >= 0) return;
+
+    for (int i = scopes.size() - 1; i >= functionScope; i--) {
+      if (scopes.get(i).containsKey(name.lexeme)) return; // the function's own
+    }
+    currentEffects.write = name;
+  }
+
+  private void recordCall(Token name, boolean method) {
+    if (currentEffects != null) (method ? currentEffects.methods : currentEffects.functions).add(name.lexeme);
+    if (parallelScope >= 0) parallelCalls.add(new Call(name, method));
+  }
+
+  /**
+   * Reports the calls in parallel for bodies that could assign a variable the iterations share:
+   * calls to a function that assigns one it did not declare (a global, or a local of a function
+   * around it), or that calls such a function, however indirectly. A name this module does not
+   * declare is a builtin or comes from an imported module, whose code is not at hand here; only
+   * builtins, and the methods of arrays, maps and channels, are known to assign no variables.
+   */
+  private void checkParallelCalls() {
+    for (Call call : parallelCalls) {
+      String reason = race(call);
+      if (reason != null) {
+        Kali.error(call.name, "Can't call '" + call.name.lexeme + "' in a parallel for: " + reason + ".");
+      }
+    }
+    parallelCalls.clear();
+  }
+
+  /** Why the call could assign a shared variable, or null if it can't. */
+  private String race(Call call) {
+    Deque<String> pending = new ArrayDeque<>(); // method names start with a '.'
+    Set<String> seen = new HashSet<>();
+    pending.add((call.method ? "." : "") + call.name.lexeme);
+
+    while (!pending.isEmpty()) {
+      String next = pending.poll();
+      if (!seen.add(next)) continue;
+      boolean method = next.startsWith(".");
+      String name = method ? next.substring(1) : next;
+
+      Effects callee = effects.get(name);
+      if (callee == null) {
+        if (method ? isNativeMethod(name) : isBuiltin(name)) continue;
+        return "'" + name + "' is not declared in this module, so what it assigns can't be checked";
+      }
+      if (callee.write != null) {
+        return "'" + name + "' assigns '" + callee.write.lexeme + "', which is declared outside of it";
+      }
+      pending.addAll(callee.functions);
+      for (String called : callee.methods) pending.add("." + called);
+    }
+    return null;
+  }
+
+  private static boolean isBuiltin(String name) {
+    for (KaliNative builtin : KaliNative.BUILTINS) {
+      if (builtin.name.equals(name)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isNativeMethod(String name) {
+    return KaliArray.method(name, null) != null
+        || KaliMap.method(name, null, null, null) != null
+        || KaliChannel.method(name, null, null) != null;
+  }
+
+  private static boolean isIncrement(Token operator) {
+    return operator.type == TokenType.DOUBLE_PLUS || operator.type == TokenType.DOUBLE_MINUS;
+  }
+
+  /**
+   * Reports a write to a variable declared outside the innermost parallel for, or to its loop variable.
+   */
+  private void checkParallelWrite(Token name) {
+    if (parallelScope < 0) return;
+
+    for (int i = scopes.size() - 1; i > parallelScope; i--) {
+      if (scopes.get(i).containsKey(name.lexeme)) return; // declared in the body
+    }
+    if (scopes.get(parallelScope).containsKey(name.lexeme)) {
+      if (name.lexeme.equals(parallelVariable.lexeme)) {
+        Kali.error(name, "Can't assign to the loop variable of a parallel for.");
+      }
+      return; // a reduction copy
+    }
+    Kali.error(name, "Can't assign to '" + name.lexeme + "' in a parallel for; declare it in the loop or reduce into it.");
+  }
+
+  /**
+   * The operator a name reduces with when it is the private copy of a reduction variable of a
+   * parallel for around it, null when it is anything else.
+   */
+  private Token reductionOperator(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (scopes.get(i).containsKey(name.lexeme)) {
+        Map<String, Token> operators = reductionScopes.get(i);
+        return operators == null ? null : operators.get(name.lexeme);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Resolves an assignment to a reduction copy, which must read 'x = x op e' with the operator of
+   * the reduction. Left-nested uses of the same operator, 'x = x + a + b', update it the same way.
+   */
+  private void checkReduction(Expr.Assign expr, Token operator) {
+    Expr left = expr.value;
+    boolean update = left instanceof Expr.Binary;
+    while (left instanceof Expr.Binary) {
+      update &= ((Expr.Binary)left).operator.type == operator.type;
+      left = ((Expr.Binary)left).left;
+    }
+    // the x on the left is the one read allowed, so a wrong operator is reported once
+    if (left instanceof Expr.Variable && ((Expr.Variable)left).name.lexeme.equals(expr.name.lexeme)) {
+      reductionRead = (Expr.Variable)left;
+    } else {
+      update = false;
+    }
+    if (!update) reductionMisuse(expr.name);
+    try {
+      resolve(expr.value);
+    } finally {
+      reductionRead = null;
+    }
+  }
+
+  private void reductionMisuse(Token name) {
+    Kali.error(name, "A reduction variable can only be updated as '" + name.lexeme + " = "
+        + name.lexeme + " " + reductionOperator(name).lexeme + " ...' in a parallel for.");
   }
 
   private void beginScope() {
@@ -298,15 +625,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   /**
    * Resolves a local variable by finding which scope it belongs to.
-   * Passes the number of "hops" (distance) to the interpreter.
+   * Stores the number of "hops" (distance) on the node for the interpreter, GLOBAL if it is in none.
    */
-  private void resolveLocal(Expr expr, Token name) {
+  private void resolveLocal(Expr.Resolvable expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
       if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+        expr.depth = scopes.size() - 1 - i;
         return;
       }
     }
+    expr.depth = Expr.GLOBAL;
   }
 
   /**
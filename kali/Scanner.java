@@ -1,6 +1,9 @@
 package kali;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,17 +11,22 @@ import java.util.Map;
 /**
  * The Scanner (Lexer) for the Kali language.
  *
- * Responsible for transforming raw source code (String) into a list of Tokens.
+ * Responsible for transforming raw source code into a list of Tokens.
  * It handles the first phase of the interpreter pipeline: Lexical Analysis.
  *
- * Works by iterating through the source character by character (linear scan)
+ * Works by iterating through the UTF-8 encoded source byte by byte (linear scan)
  * and grouping them into meaningful lexemes (tokens) like keywords, literals, and operators.
+ * Every character with a meaning in Kali is ASCII, so the bytes never have to be decoded up front;
+ * only identifier, number and string lexemes are turned into Strings. A string literal's lexeme is
+ * its value, without the quotes, so it is decoded and held once.
  */
 public class Scanner {
-  /** The raw source code to be scanned. */
-  private final String source;
+  /** The raw UTF-8 source code to be scanned, usually a memory-mapped file. */
+  private final ByteBuffer source;
   /** The list of tokens accumulating during the scan. */
   private final List<Token> tokens = new ArrayList<>();
+  /** One String per distinct identifier or keyword, shared by all its tokens and so by the AST. */
+  private final Map<String, String> names = new HashMap<>();
 
   /** The start index of the lexeme currently being scanned. */
   private int start = 0;
@@ -38,6 +46,7 @@ public class Scanner {
     keywords.put("false",  TokenType.FALSE);
     keywords.put("for",    TokenType.FOR);
     keywords.put("if",     TokenType.IF);
+    keywords.put("import", TokenType.IMPORT);
     keywords.put("nil",    TokenType.NIL);
     keywords.put("or",     TokenType.OR);
     keywords.put("print",  TokenType.PRINT);
@@ -51,10 +60,70 @@ public class Scanner {
     keywords.put("boolean", TokenType.TYPE_BOOLEAN);
     keywords.put("void", TokenType.TYPE_VOID); // Void might be useful later, but sticking to requested types.
     keywords.put("extends", TokenType.EXTENDS);
+    keywords.put("task", TokenType.TYPE_TASK);
+    keywords.put("channel", TokenType.TYPE_CHANNEL);
+    keywords.put("map", TokenType.TYPE_MAP);
+    keywords.put("spawn", TokenType.SPAWN);
+    keywords.put("await", TokenType.AWAIT);
+    keywords.put("parallel", TokenType.PARALLEL);
+    keywords.put("reduce", TokenType.REDUCE);
+  }
+
+  /** Lexemes of the tokens whose text never changes, so they are shared instead of decoded. */
+  private static final Map<TokenType, String> fixedLexemes;
+
+  static {
+    fixedLexemes = new EnumMap<>(TokenType.class);
+    fixedLexemes.put(TokenType.LEFT_PAREN,    "(");
+    fixedLexemes.put(TokenType.RIGHT_PAREN,   ")");
+    fixedLexemes.put(TokenType.LEFT_BRACE,    "{");
+    fixedLexemes.put(TokenType.RIGHT_BRACE,   "}");
+    fixedLexemes.put(TokenType.LEFT_BRACKET,  "[");
+    fixedLexemes.put(TokenType.RIGHT_BRACKET, "]");
+    fixedLexemes.put(TokenType.COMMA,         ",");
+    fixedLexemes.put(TokenType.DOT,           ".");
+    fixedLexemes.put(TokenType.SEMICOLON,     ";");
+    fixedLexemes.put(TokenType.STAR,          "*");
+    fixedLexemes.put(TokenType.COLON,         ":");
+    fixedLexemes.put(TokenType.MINUS,         "-");
+    fixedLexemes.put(TokenType.DOUBLE_MINUS,  "--");
+    fixedLexemes.put(TokenType.PLUS,          "+");
+    fixedLexemes.put(TokenType.DOUBLE_PLUS,   "++");
+    fixedLexemes.put(TokenType.BANG,          "!");
+    fixedLexemes.put(TokenType.BANG_EQUAL,    "!=");
+    fixedLexemes.put(TokenType.EQUAL,         "=");
+    fixedLexemes.put(TokenType.EQUAL_EQUAL,   "==");
+    fixedLexemes.put(TokenType.LESS,          "<");
+    fixedLexemes.put(TokenType.LESS_EQUAL,    "<=");
+    fixedLexemes.put(TokenType.GREATER,       ">");
+    fixedLexemes.put(TokenType.GREATER_EQUAL, ">=");
+    fixedLexemes.put(TokenType.SLASH,         "/");
   }
 
   public Scanner(String source) {
+    this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Scans UTF-8 source straight out of a buffer, e.g. one obtained with FileChannel.map,
+   * so the file is never copied into a String first.
+   * A leading byte order mark is skipped.
+   */
+  public Scanner(ByteBuffer source) {
+    this(source, 1);
+  }
+
+  /**
+   * Scans a fragment of a larger source whose first byte sits on the given line,
+   * so the tokens carry the line numbers of the whole file.
+   */
+  Scanner(ByteBuffer source, int firstLine) {
     this.source = source;
+    this.line = firstLine;
+    if (source.limit() >= 3 && (source.get(0) & 0xff) == 0xef
+        && (source.get(1) & 0xff) == 0xbb && (source.get(2) & 0xff) == 0xbf) {
+      current = 3;
+    }
   }
 
   /**
@@ -75,9 +144,24 @@ public class Scanner {
     }
 
     tokens.add(new Token(TokenType.EOF, "", null, line));
+    if (KaliStats.ENABLED) KaliStats.TOKENS.add(tokens.size());
     return tokens;
   }
 
+  /**
+   * Scans just the next token, for a Parser that reads the source as it goes (see StreamingPipeline),
+   * so the tokens are never all held at once. Returns EOF at the end. Not to be mixed with scanTokens.
+   */
+  Token nextToken() {
+    while (tokens.isEmpty() && !isAtEnd()) {
+      start = current;
+      scanToken();
+    }
+    if (KaliStats.ENABLED) KaliStats.TOKENS.increment();
+    if (tokens.isEmpty()) return new Token(TokenType.EOF, "", null, line);
+    return tokens.remove(0);
+  }
+
   /**
    * Scans a single token by advancing the current character and matching it against known patterns.
    * If a character could start multiple token types, it checks subsequent characters.
@@ -90,9 +174,12 @@ public class Scanner {
       case ')': addToken(TokenType.RIGHT_PAREN); break;
       case '{': addToken(TokenType.LEFT_BRACE); break;
       case '}': addToken(TokenType.RIGHT_BRACE); break;
+      case '[': addToken(TokenType.LEFT_BRACKET); break;
+      case ']': addToken(TokenType.RIGHT_BRACKET); break;
       case ',': addToken(TokenType.COMMA); break;
       case '.': addToken(TokenType.DOT); break;
       case ';': addToken(TokenType.SEMICOLON); break;
+      case ':': addToken(TokenType.COLON); break;
       case '*': addToken(TokenType.STAR); break;
       case '-':
         addToken(match('-') ? TokenType.DOUBLE_MINUS : TokenType.MINUS);
@@ -140,6 +227,10 @@ public class Scanner {
           identifier();
         }
         else{
+          // swallow the continuation bytes so a multi-byte character is reported once
+          if (c >= 0x80) {
+            while ((peek() & 0xc0) == 0x80) advance();
+          }
           Kali.error(line, "Unexpected character.");
         }
         break;
@@ -157,10 +248,12 @@ public class Scanner {
   private void identifier() {
     while(isAlpha(peek()) || isDigit(peek())) advance();
 
-    String text = source.substring(start, current);
+    String text = text(start, current);
+    String shared = names.putIfAbsent(text, text);
+    if (shared != null) text = shared;
     TokenType type = keywords.get(text);
     if (type == null) type = TokenType.IDENTIFIER;
-    addToken(type);
+    tokens.add(new Token(type, text, null, line));
   }
 
   /**
@@ -177,7 +270,8 @@ public class Scanner {
       while (isDigit(peek())) advance();
     }
 
-    addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+    String text = text(start, current);
+    tokens.add(new Token(TokenType.NUMBER, text, Double.parseDouble(text), line));
   }
 
   /**
@@ -197,8 +291,8 @@ public class Scanner {
     }
 
     advance();
-    String value = source.substring(start+1, current-1);
-    addToken(TokenType.STRING, value);
+    String value = utf8(start+1, current-1);
+    tokens.add(new Token(TokenType.STRING, value, value, line));
   }
 
   // --- Character Helper Methods ---
@@ -213,7 +307,7 @@ public class Scanner {
    */
   private boolean match(char expected){
     if (isAtEnd()) return false;
-    if (source.charAt(current) != expected) return false;
+    if (source.get(current) != expected) return false;
 
     current++;
     return true;
@@ -227,12 +321,12 @@ public class Scanner {
    */
   private char peek(){
     if (isAtEnd()) return '\0';
-    return source.charAt(current);
+    return (char)(source.get(current) & 0xff);
   }
 
   private char peekNext(){
-    if (current + 1 >= source.length()) return '\0';
-    return source.charAt(current + 1);
+    if (current + 1 >= source.limit()) return '\0';
+    return (char)(source.get(current + 1) & 0xff);
   }
 
   private boolean isAlpha(char c){
@@ -250,21 +344,37 @@ public class Scanner {
    * @return boolean expression of the current pointer should before the length.
    */
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= source.limit();
   }
 
   private char advance(){
-    return source.charAt(current++);
+    return (char)(source.get(current++) & 0xff);
   }
 
-  // --- Token Addition Helpers ---
+  // --- Lexeme Decoding Helpers ---
 
-  private void addToken(TokenType type){
-    addToken(type, null);
+  /**
+   * Decodes a lexeme that is known to be ASCII (identifiers, keywords, numbers).
+   * Latin-1 maps every byte to one char, which is the cheapest decode there is.
+   */
+  private String text(int from, int to) {
+    return new String(bytes(from, to), StandardCharsets.ISO_8859_1);
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  /** Decodes a lexeme that may contain any UTF-8 text (string literals). */
+  private String utf8(int from, int to) {
+    return new String(bytes(from, to), StandardCharsets.UTF_8);
+  }
+
+  private byte[] bytes(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    source.get(from, bytes);
+    return bytes;
+  }
+
+  // --- Token Addition Helpers ---
+
+  private void addToken(TokenType type){
+    tokens.add(new Token(type, fixedLexemes.get(type), null, line));
   }
 }
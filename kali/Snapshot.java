@@ -0,0 +1,531 @@
+package kali;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap snapshot of the global environment, taken when a script calls snapshot().
+ *
+ * Everything before the top-level snapshot() call is the script's init phase. The first run executes it
+ * and writes the globals it produced: primitive values, functions with their closures, classes and
+ * whole graphs of instances, arrays and maps. Later runs of the same source restore those globals and continue with the
+ * statement after snapshot(), instead of running the init code again.
+ *
+ * Functions point at their declaration by its position in the program (see paths), which is stable
+ * because a snapshot is only used for the exact source (by SHA-256) it was taken from.
+ *
+ * Layout (big-endian): magic, version, source hash, resume index, then the object table.
+ * Objects are listed so that whatever an object needs to be constructed (enclosing scope, closure,
+ * superclass, class) comes before it; their mutable contents (scope values, methods, fields) follow
+ * in a second section, where references may point anywhere, so cycles are fine.
+ */
+class Snapshot {
+  private static final int MAGIC = 0x4b414c53; // "KALS"
+  private static final int FORMAT_VERSION = 3;
+
+  // Object kinds. Object 0 is always the global environment.
+  private static final byte GLOBALS = 0, ENVIRONMENT = 1, FUNCTION = 2, CLASS = 3, INSTANCE = 4, ARRAY = 5, MAP = 6;
+
+  // Value tags.
+  private static final byte NIL = 0, NUMBER = 1, STRING = 2, TRUE = 3, FALSE = 4, NATIVE = 5, OBJECT = 6;
+
+  private static final int NONE = -1;
+
+  static Path fileFor(Path script) {
+    return script.resolveSibling(script.getFileName() + ".kalisnap");
+  }
+
+  /**
+   * Writes the global environment.
+   * @param resumeIndex Index of the first top-level statement to run after a restore.
+   * @throws IllegalArgumentException If the globals hold a value that cannot be snapshotted.
+   */
+  static void write(Path file, byte[] sourceHash, List<Stmt> program, int resumeIndex, Environment globals)
+      throws IOException {
+    Writer writer = new Writer(globals, paths(program));
+    writer.collect();
+
+    Path target = file.toAbsolutePath();
+    // a name of its own, so processes snapshotting the same script at once don't write into one file
+    Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream stream = Files.newOutputStream(temporary)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(sourceHash);
+        out.writeInt(resumeIndex);
+        writer.write(out);
+        out.flush();
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Restores a snapshot into the interpreter's globals if one exists for this exact source.
+   * @return The index of the top-level statement to continue with, or 0 to run the program from the start.
+   */
+  static int restore(Path file, byte[] sourceHash, List<Stmt> program, Environment globals) {
+    if (!Files.isRegularFile(file)) return 0;
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return 0;
+
+      byte[] hash = new byte[sourceHash.length];
+      buffer.get(hash);
+      if (!Arrays.equals(hash, sourceHash)) return 0;
+
+      int resumeIndex = buffer.getInt();
+      // build everything first, so a damaged file leaves the globals untouched
+      Map<String, Object> values = new Reader(buffer, declarations(program), globals).read();
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        globals.define(entry.getKey(), entry.getValue());
+      }
+      return resumeIndex;
+    } catch (IOException | RuntimeException error) {
+      return 0;
+    }
+  }
+
+  /**
+   * Where each function declaration is, for the functions in the snapshot to name it: its index
+   * among the declarations of the top level, then among those of that function's body, and so on.
+   * A body still in the arena (see FlatAst.Body) is left out, since numbering it would build it.
+   * It has never run, so no function in the globals can be declared in it.
+   */
+  private static Map<Stmt.Function, int[]> paths(List<Stmt> program) {
+    Map<Stmt.Function, int[]> paths = new IdentityHashMap<>();
+    Deque<Stmt.Function> pending = new ArrayDeque<>();
+    List<Stmt.Function> topLevel = declarations(program);
+    for (int i = 0; i < topLevel.size(); i++) {
+      paths.put(topLevel.get(i), new int[] {i});
+      pending.push(topLevel.get(i));
+    }
+
+    while (!pending.isEmpty()) {
+      Stmt.Function function = pending.pop();
+      if (!FlatAst.isBuilt(function)) continue;
+
+      int[] outer = paths.get(function);
+      List<Stmt.Function> nested = declarations(FlatAst.body(function));
+      for (int i = 0; i < nested.size(); i++) {
+        int[] path = Arrays.copyOf(outer, outer.length + 1);
+        path[outer.length] = i;
+        paths.put(nested.get(i), path);
+        pending.push(nested.get(i));
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * The function and method declarations in some statements, in pre-order, without going into the
+   * bodies of the functions: their declarations are a level of their own, see paths.
+   */
+  private static List<Stmt.Function> declarations(List<Stmt> statements) {
+    List<Stmt.Function> functions = new ArrayList<>();
+    Deque<Stmt> pending = new ArrayDeque<>();
+    for (int i = statements.size() - 1; i >= 0; i--) pending.push(statements.get(i));
+
+    while (!pending.isEmpty()) {
+      Stmt stmt = pending.pop();
+      List<? extends Stmt> children = null;
+      if (stmt instanceof Stmt.Function) {
+        functions.add((Stmt.Function)stmt);
+      } else if (stmt instanceof Stmt.Class) {
+        children = ((Stmt.Class)stmt).methods;
+      } else if (stmt instanceof Stmt.Block) {
+        children = ((Stmt.Block)stmt).statements;
+      } else if (stmt instanceof Stmt.If) {
+        Stmt.If ifStmt = (Stmt.If)stmt;
+        children = ifStmt.elseBranch == null
+            ? Arrays.asList(ifStmt.thenBranch)
+            : Arrays.asList(ifStmt.thenBranch, ifStmt.elseBranch);
+      } else if (stmt instanceof Stmt.While) {
+        children = Arrays.asList(((Stmt.While)stmt).body);
+      } else if (stmt instanceof Stmt.ParallelFor) {
+        children = Arrays.asList(((Stmt.ParallelFor)stmt).body);
+      }
+
+      if (children == null) continue;
+      for (int i = children.size() - 1; i >= 0; i--) {
+        if (children.get(i) != null) pending.push(children.get(i));
+      }
+    }
+    return functions;
+  }
+
+  /**
+   * Numbers every object reachable from the globals, then writes the table.
+   */
+  private static class Writer {
+    private final Environment globals;
+    private final Map<Stmt.Function, int[]> paths;
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    Writer(Environment globals, Map<Stmt.Function, int[]> paths) {
+      this.globals = globals;
+      this.paths = paths;
+    }
+
+    /**
+     * Assigns ids so that construction dependencies get lower ids than their dependents.
+     * Walks with an explicit stack, so long instance chains do not overflow the Java stack.
+     */
+    void collect() {
+      ids.put(globals, 0);
+      objects.add(globals);
+
+      Deque<Object> pending = new ArrayDeque<>();
+      pending.push(globals);
+      while (!pending.isEmpty()) {
+        for (Object value : contents(pending.pop())) {
+          if (isObject(value) && !ids.containsKey(value)) number(value, pending);
+        }
+      }
+    }
+
+    /** Gives an object, and first whatever it is constructed from, an id, and queues their contents. */
+    private void number(Object object, Deque<Object> pending) {
+      Object dependency = dependency(object);
+      if (dependency != null && !ids.containsKey(dependency)) number(dependency, pending);
+      ids.put(object, objects.size());
+      objects.add(object);
+      pending.push(object);
+    }
+
+    private static boolean isObject(Object value) {
+      return value instanceof Environment || value instanceof KaliFunction
+          || value instanceof KaliClass || value instanceof KaliInstance
+          || value instanceof KaliArray || value instanceof KaliMap;
+    }
+
+    /** What has to exist before the object can be constructed. */
+    private static Object dependency(Object object) {
+      if (object instanceof Environment) return ((Environment)object).enclosing;
+      if (object instanceof KaliFunction) return ((KaliFunction)object).closure;
+      if (object instanceof KaliClass) return ((KaliClass)object).superclass;
+      if (object instanceof KaliArray || object instanceof KaliMap) return null;
+      return ((KaliInstance)object).klass;
+    }
+
+    /** Everything an object refers to. */
+    private static List<Object> contents(Object object) {
+      List<Object> contents = new ArrayList<>();
+      Object dependency = dependency(object);
+      if (dependency != null) contents.add(dependency);
+
+      if (object instanceof Environment) {
+        contents.addAll(((Environment)object).values().values());
+      } else if (object instanceof KaliClass) {
+        KaliClass klass = (KaliClass)object;
+        contents.addAll(klass.methods.values());
+        if (klass.fields != null) contents.addAll(klass.fields.values());
+      } else if (object instanceof KaliInstance) {
+        contents.addAll(((KaliInstance)object).fields().values());
+      } else if (object instanceof KaliArray.Objects) {
+        contents.addAll(Arrays.asList(((KaliArray.Objects)object).values));
+      } else if (object instanceof KaliMap) {
+        KaliMap map = (KaliMap)object;
+        KaliArray keys = map.keys();
+        for (int i = 0; i < keys.length(); i++) contents.add(map.get(keys.get(i), null));
+      }
+      return contents;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      // the string table goes first but is only complete once the objects are written
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream body = new DataOutputStream(bytes);
+
+      body.writeInt(objects.size());
+      for (Object object : objects) header(body, object);
+      for (Object object : objects) contents(body, object);
+      body.flush();
+
+      out.writeInt(strings.size());
+      for (String string : strings) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+      }
+      bytes.writeTo(out);
+    }
+
+    private void header(DataOutputStream out, Object object) throws IOException {
+      if (object == globals) {
+        out.writeByte(GLOBALS);
+      } else if (object instanceof Environment) {
+        out.writeByte(ENVIRONMENT);
+        out.writeInt(id(((Environment)object).enclosing));
+      } else if (object instanceof KaliFunction) {
+        KaliFunction function = (KaliFunction)object;
+        int[] path = paths.get(function.declaration);
+        if (path == null) {
+          throw new IllegalArgumentException("function '" + function.declaration.name.lexeme + "' is not part of this program.");
+        }
+        out.writeByte(FUNCTION);
+        out.writeInt(path.length);
+        for (int index : path) out.writeInt(index);
+        out.writeInt(id(function.closure));
+        out.writeBoolean(function.isInitializer);
+      } else if (object instanceof KaliClass) {
+        KaliClass klass = (KaliClass)object;
+        out.writeByte(CLASS);
+        out.writeInt(string(klass.name));
+        out.writeInt(id(klass.superclass));
+      } else if (object instanceof KaliArray) {
+        KaliArray array = (KaliArray)object;
+        out.writeByte(ARRAY);
+        out.writeInt(string(array.element));
+        out.writeInt(array.length());
+      } else if (object instanceof KaliMap) {
+        out.writeByte(MAP);
+        out.writeInt(string(((KaliMap)object).keyType));
+      } else {
+        out.writeByte(INSTANCE);
+        out.writeInt(id(((KaliInstance)object).klass));
+      }
+    }
+
+    private void contents(DataOutputStream out, Object object) throws IOException {
+      if (object instanceof Environment) {
+        values(out, ((Environment)object).values());
+      } else if (object instanceof KaliClass) {
+        KaliClass klass = (KaliClass)object;
+        out.writeInt(klass.methods.size());
+        for (Map.Entry<String, KaliFunction> method : klass.methods.entrySet()) {
+          out.writeInt(string(method.getKey()));
+          out.writeInt(id(method.getValue()));
+        }
+        values(out, klass.fields == null ? Collections.emptyMap() : klass.fields);
+      } else if (object instanceof KaliInstance) {
+        values(out, ((KaliInstance)object).fields());
+      } else if (object instanceof KaliArray) {
+        KaliArray array = (KaliArray)object;
+        for (int i = 0; i < array.length(); i++) value(out, array.get(i));
+      } else if (object instanceof KaliMap) {
+        KaliMap map = (KaliMap)object;
+        KaliArray keys = map.keys();
+        out.writeInt(keys.length());
+        for (int i = 0; i < keys.length(); i++) {
+          value(out, keys.get(i));
+          value(out, map.get(keys.get(i), null));
+        }
+      }
+    }
+
+    private void values(DataOutputStream out, Map<String, Object> values) throws IOException {
+      out.writeInt(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        out.writeInt(string(entry.getKey()));
+        value(out, entry.getValue());
+      }
+    }
+
+    private void value(DataOutputStream out, Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NIL);
+      } else if (value instanceof Double) {
+        out.writeByte(NUMBER);
+        out.writeDouble((Double)value);
+      } else if (value instanceof String) {
+        out.writeByte(STRING);
+        out.writeInt(string((String)value));
+      } else if (value instanceof Boolean) {
+        out.writeByte((Boolean)value ? TRUE : FALSE);
+      } else if (value instanceof KaliNative) {
+        out.writeByte(NATIVE);
+        out.writeInt(string(((KaliNative)value).name));
+      } else if (isObject(value)) {
+        out.writeByte(OBJECT);
+        out.writeInt(id(value));
+      } else {
+        throw new IllegalArgumentException("cannot snapshot " + value + ".");
+      }
+    }
+
+    private int id(Object object) {
+      return object == null ? NONE : ids.get(object);
+    }
+
+    private int string(String value) {
+      Integer index = stringIndex.get(value);
+      if (index == null) {
+        index = strings.size();
+        strings.add(value);
+        stringIndex.put(value, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Rebuilds the object table of a snapshot positioned after the resume index.
+   */
+  private static class Reader {
+    private final ByteBuffer buffer;
+    /** The declarations of the top level, then those of each function body a path went into. */
+    private final List<Stmt.Function> topLevel;
+    private final Map<Stmt.Function, List<Stmt.Function>> nested = new IdentityHashMap<>();
+    private final Environment globals;
+    private final Map<String, Object> globalValues = new HashMap<>();
+    private String[] strings;
+    private Object[] objects;
+
+    Reader(ByteBuffer buffer, List<Stmt.Function> topLevel, Environment globals) {
+      this.buffer = buffer;
+      this.topLevel = topLevel;
+      this.globals = globals;
+    }
+
+    /** @return the values to define in the global environment */
+    Map<String, Object> read() {
+      strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] utf8 = new byte[buffer.getInt()];
+        buffer.get(utf8);
+        strings[i] = new String(utf8, StandardCharsets.UTF_8);
+      }
+
+      objects = new Object[buffer.getInt()];
+      for (int i = 0; i < objects.length; i++) objects[i] = construct(buffer.get());
+      for (Object object : objects) fill(object);
+
+      if (buffer.hasRemaining()) throw new IllegalStateException("Trailing bytes in snapshot.");
+      return globalValues;
+    }
+
+    private Object construct(byte kind) {
+      switch (kind) {
+        case GLOBALS: return globals;
+        case ENVIRONMENT: return new Environment((Environment)object());
+        case FUNCTION: {
+          Stmt.Function declaration = declaration();
+          Environment closure = (Environment)object();
+          return new KaliFunction(declaration, closure, buffer.get() != 0);
+        }
+        case CLASS: {
+          String name = strings[buffer.getInt()];
+          KaliClass superclass = (KaliClass)object();
+          return new KaliClass(name, superclass, new HashMap<>(), new HashMap<>());
+        }
+        case INSTANCE: return new KaliInstance((KaliClass)object());
+        case ARRAY: {
+          String element = strings[buffer.getInt()];
+          return KaliArray.create(element, buffer.getInt());
+        }
+        case MAP: return KaliMap.create(strings[buffer.getInt()]);
+        default: throw new IllegalStateException("Unknown object kind " + kind + ".");
+      }
+    }
+
+    /** Follows a path written by the Writer; builds only the bodies it goes into. */
+    private Stmt.Function declaration() {
+      int length = buffer.getInt();
+      if (length < 1) throw new IllegalStateException("Empty declaration path.");
+      Stmt.Function function = topLevel.get(buffer.getInt());
+      for (int i = 1; i < length; i++) {
+        List<Stmt.Function> level = nested.computeIfAbsent(function, outer -> declarations(FlatAst.body(outer)));
+        function = level.get(buffer.getInt());
+      }
+      return function;
+    }
+
+    private void fill(Object object) {
+      if (object == globals) {
+        values(globalValues);
+      } else if (object instanceof Environment) {
+        Environment environment = (Environment)object;
+        Map<String, Object> values = new HashMap<>();
+        values(values);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+          environment.define(entry.getKey(), entry.getValue());
+        }
+      } else if (object instanceof KaliClass) {
+        KaliClass klass = (KaliClass)object;
+        int methods = buffer.getInt();
+        for (int i = 0; i < methods; i++) {
+          String name = strings[buffer.getInt()];
+          klass.methods.put(name, (KaliFunction)object());
+        }
+        values(klass.fields);
+      } else if (object instanceof KaliInstance) {
+        KaliInstance instance = (KaliInstance)object;
+        Map<String, Object> fields = new HashMap<>();
+        values(fields);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+          instance.set(field.getKey(), field.getValue());
+        }
+      } else if (object instanceof KaliArray) {
+        KaliArray array = (KaliArray)object;
+        for (int i = 0; i < array.length(); i++) array.set(i, value());
+      } else if (object instanceof KaliMap) {
+        KaliMap map = (KaliMap)object;
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+          Object key = value();
+          map.put(key, value());
+        }
+      }
+    }
+
+    private void values(Map<String, Object> into) {
+      int size = buffer.getInt();
+      for (int i = 0; i < size; i++) {
+        String name = strings[buffer.getInt()];
+        into.put(name, value());
+      }
+    }
+
+    private Object value() {
+      byte tag = buffer.get();
+      switch (tag) {
+        case NIL: return null;
+        case NUMBER: return buffer.getDouble();
+        case STRING: return strings[buffer.getInt()];
+        case TRUE: return true;
+        case FALSE: return false;
+        case NATIVE: {
+          String name = strings[buffer.getInt()];
+          if (!globals.hasCurrent(name)) throw new IllegalStateException("Unknown native " + name + ".");
+          return globals.values().get(name);
+        }
+        case OBJECT: return object();
+        default: throw new IllegalStateException("Unknown value tag " + tag + ".");
+      }
+    }
+
+    private Object object() {
+      int id = buffer.getInt();
+      return id == NONE ? null : objects[id];
+    }
+  }
+}
@@ -3,20 +3,44 @@ package kali;
 import kali.Token;
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt {
+  // Node kinds.
+  static final byte BLOCK = 0;
+  static final byte CLASS = 1;
+  static final byte EXPRESSION = 2;
+  static final byte IMPORT = 3;
+  static final byte FUNCTION = 4;
+  static final byte IF = 5;
+  static final byte PRINT = 6;
+  static final byte RETURN = 7;
+  static final byte VAR = 8;
+  static final byte WHILE = 9;
+  static final byte PARALLEL_FOR = 10;
+
+  /** Which of the node classes this is, one of the kinds above. */
+  final byte kind;
+
+  Stmt(byte kind) {
+    this.kind = kind;
+    if (KaliStats.ENABLED) KaliStats.NODES.increment();
+  }
+
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitImportStmt(Import stmt);
     R visitFunctionStmt(Function stmt);
+    R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
-    R visitIfStmt(If stmt);
+    R visitParallelForStmt(ParallelFor stmt);
   }
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
+      super(BLOCK);
       this.statements = statements;
     }
 
@@ -27,8 +51,9 @@ abstract class Stmt {
 
     final List<Stmt> statements;
   }
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Var> fields) {
+      super(CLASS);
       this.name = name;
       this.superclass = superclass;
       this.methods = methods;
@@ -45,8 +70,9 @@ abstract class Stmt {
     final List<Stmt.Function> methods;
     final List<Var> fields;
   }
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
+      super(EXPRESSION);
       this.expression = expression;
     }
 
@@ -57,8 +83,24 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Function extends Stmt {
+  static final class Import extends Stmt {
+    Import(Token keyword, Token path) {
+      super(IMPORT);
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    final Token keyword;
+    final Token path;
+  }
+  static final class Function extends Stmt {
     Function(Token name, Token type, List<Token> params, List<Token> paramTypes, List<Stmt> body) {
+      super(FUNCTION);
       this.name = name;
       this.type = type;
       this.params = params;
@@ -77,8 +119,26 @@ abstract class Stmt {
     final List<Token> paramTypes;
     final List<Stmt> body;
   }
-  static class Print extends Stmt {
+  static final class If extends Stmt {
+    If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      super(IF);
+      this.condition = condition;
+      this.thenBranch = thenBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIfStmt(this);
+    }
+
+    final Expr condition;
+    final Stmt thenBranch;
+    final Stmt elseBranch;
+  }
+  static final class Print extends Stmt {
     Print(Expr expression) {
+      super(PRINT);
       this.expression = expression;
     }
 
@@ -89,8 +149,9 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
+      super(RETURN);
       this.keyword = keyword;
       this.value = value;
     }
@@ -103,8 +164,9 @@ abstract class Stmt {
     final Token keyword;
     final Expr value;
   }
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Token type, Expr initializer) {
+      super(VAR);
       this.name = name;
       this.type = type;
       this.initializer = initializer;
@@ -119,8 +181,9 @@ abstract class Stmt {
     final Token type;
     final Expr initializer;
   }
-  static class While extends Stmt {
+  static final class While extends Stmt {
     While(Expr condition, Stmt body) {
+      super(WHILE);
       this.condition = condition;
       this.body = body;
     }
@@ -133,22 +196,31 @@ abstract class Stmt {
     final Expr condition;
     final Stmt body;
   }
-  static class If extends Stmt {
-    If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
-      this.condition = condition;
-      this.thenBranch = thenBranch;
-      this.elseBranch = elseBranch;
+  static final class ParallelFor extends Stmt {
+    ParallelFor(Token keyword, Token variable, Expr from, Expr to, List<Token> operators, List<Expr.Variable> reductions, Stmt body) {
+      super(PARALLEL_FOR);
+      this.keyword = keyword;
+      this.variable = variable;
+      this.from = from;
+      this.to = to;
+      this.operators = operators;
+      this.reductions = reductions;
+      this.body = body;
     }
 
     @Override
     <R> R accept(Visitor<R> visitor) {
-      return visitor.visitIfStmt(this);
+      return visitor.visitParallelForStmt(this);
     }
 
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
+    final Token keyword;
+    final Token variable;
+    final Expr from;
+    final Expr to;
+    final List<Token> operators;
+    final List<Expr.Variable> reductions;
+    final Stmt body;
   }
 
- abstract <R> R accept(Visitor<R> visitor);
+  abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,77 @@
+package kali;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a script while it is still being read (--stream): the Parser pulls tokens from the Scanner as
+ * it needs them and hands out one top-level declaration at a time, which is resolved, type checked
+ * and run before the next one is parsed. The output starts right away and the memory used does not
+ * grow with the length of the script, only with what the script itself keeps (its globals, functions
+ * and classes).
+ *
+ * Like a ReplSession, the passes live as long as the script and every piece is compiled against the
+ * ones before it. Function and class declarations that follow each other are checked together,
+ * so they can call each other whatever their order; a statement in between ends the group, and code
+ * after that sees them but cannot be seen by them. When a piece fails to compile or stops with a
+ * RuntimeError, the pieces before it have already run.
+ *
+ * Imports, the program cache and snapshots need the whole program up front, so they do not apply.
+ */
+class StreamingPipeline {
+  private final KaliContext context;
+  private final Interpreter interpreter;
+  private final Resolver resolver;
+  private final TypeChecker typeChecker = new TypeChecker();
+
+  StreamingPipeline(KaliContext context) {
+    this.context = context;
+    this.interpreter = context.interpreter;
+    this.resolver = new Resolver();
+  }
+
+  /**
+   * Runs the script in the source; errors are reported and set the flags of the KaliContext.
+   */
+  void run(ByteBuffer source) {
+    Parser parser = new Parser(new Scanner(source));
+    List<Stmt> group = new ArrayList<>();
+
+    while (parser.hasNext()) {
+      PhaseTimer phase = PhaseTimer.start("parse"); // scanning included, it happens as the parser goes
+      Stmt statement = parser.next();
+      if (phase != null) phase.stop();
+
+      if (statement instanceof Stmt.Import) {
+        Kali.error(((Stmt.Import)statement).keyword, "Imports can't be used with --stream.");
+      }
+      if (context.hadError) break;
+
+      group.add(statement);
+      boolean declaration = statement instanceof Stmt.Function || statement instanceof Stmt.Class;
+      if (declaration && parser.hasNext()) continue;
+
+      boolean ran = execute(group);
+      group.clear(); // nothing holds on to top-level statements once they ran
+      if (!ran) break;
+    }
+
+    interpreter.finish(context.hadError || context.hadCompilationError || context.hadRuntimeError);
+  }
+
+  /** Resolves, checks and runs one group of top-level statements; false if any of that failed. */
+  private boolean execute(List<Stmt> statements) {
+    PhaseTimer phase = PhaseTimer.start("resolve");
+    resolver.resolve(statements);
+    if (phase != null) phase.stop();
+    if (context.hadError) return false;
+
+    phase = PhaseTimer.start("typecheck");
+    typeChecker.check(statements);
+    if (phase != null) phase.stop();
+    if (context.hadCompilationError) return false;
+
+    return interpreter.interpretPart(statements);
+  }
+}
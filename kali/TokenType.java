@@ -2,7 +2,7 @@ package kali;
 
 public enum TokenType {
     //Single-character token
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET, COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, COLON,
 
     //One or tewo character token
     BANG, BANG_EQUAL,
@@ -14,11 +14,12 @@ public enum TokenType {
     IDENTIFIER, STRING, NUMBER, VOID, BOOLEAN, EXTENDS,
 
     // Type Keywords
-    TYPE_NUMBER, TYPE_STRING, TYPE_BOOLEAN, TYPE_VOID,
+    TYPE_NUMBER, TYPE_STRING, TYPE_BOOLEAN, TYPE_VOID, TYPE_TASK, TYPE_CHANNEL, TYPE_MAP,
+    TYPE_ARRAY, // never scanned, the type of the '[]' in an array type such as number[]
 
     //Reserved keywords
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, WHILE,
+    PRINT, RETURN, SUPER, THIS, TRUE, WHILE, IMPORT, SPAWN, AWAIT, PARALLEL, REDUCE,
 
     EOF
 }
@@ -1,8 +1,12 @@
 package kali;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import kali.Expr.Assign;
 import kali.Expr.Binary;
@@ -21,22 +25,195 @@ import kali.Stmt.Var;
 import kali.Stmt.While;
 
 public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
-  private Environment environment = new Environment();
+  /** Bodies per fork/join leaf; checking a handful of bodies is cheaper than forking for each. */
+  private static final int BODIES_PER_TASK = 8;
+
+  private Environment environment;
   private Object currentReturnType = DataType.VOID;
   private String currentSuperClassType = null;
+  /**
+   * Top-level function and method bodies waiting for the second phase, or null while bodies are
+   * checked on the spot: always inside a block, where a body must not see names declared after it.
+   */
+  private List<Body> deferredBodies = null;
+  /** The views of the root scope that the recorded bodies check against, see view. */
+  private List<Environment> views = null;
+
+  /** Names the root scope got from imported modules, which are not exported again. */
+  private final Map<String, Object> imports;
+
+  TypeChecker() {
+    this(Collections.emptyMap());
+  }
+
+  /**
+   * @param imports Types of the declarations of imported modules, by name (see ModuleLoader).
+   */
+  TypeChecker(Map<String, Object> imports) {
+    this(new Environment(), imports);
+    for (KaliNative function : KaliNative.BUILTINS) {
+      environment.define(function.name, function);
+    }
+    for (Map.Entry<String, Object> entry : imports.entrySet()) {
+      environment.define(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private TypeChecker(Environment environment, Map<String, Object> imports) {
+    this.environment = environment;
+    this.imports = imports;
+  }
 
   /**
-   * Entry point for type checking. Walks the AST and type-checks each statement.
+   * Entry point for type checking. Runs in two phases:
+   * 1. A sequential signature pass over the statements that declares every function, class and field
+   *    type and checks the top-level code, but only records the bodies of top-level functions and
+   *    methods. Functions declared in a block are checked on the spot, against the block as it is
+   *    at the declaration.
+   * 2. The recorded bodies are checked concurrently on the common ForkJoinPool, each by its own
+   *    TypeChecker with its own scope chain on top of the (by then read-only) declaring scope.
+   * Only the first error in source order is reported, as with a single sequential walk.
    * @param statements List of statements (AST root)
    */
   void check(List<Stmt> statements){
+    check(statements, true);
+  }
+
+  /**
+   * Only the signature pass: declares what the statements define without checking function
+   * and method bodies. For code that is known to check already, see ModuleLoader.
+   */
+  void declare(List<Stmt> statements) {
+    check(statements, false);
+  }
+
+  /**
+   * The types of everything declared at the top level, except builtins and imports.
+   */
+  Map<String, Object> exports() {
+    Map<String, Object> exports = new HashMap<>();
+    for (Map.Entry<String, Object> entry : environment.values().entrySet()) {
+      if (entry.getValue() instanceof KaliNative || imports.containsKey(entry.getKey())) continue;
+      exports.put(entry.getKey(), entry.getValue());
+    }
+    return exports;
+  }
+
+  private void check(List<Stmt> statements, boolean checkBodies) {
+    List<Body> bodies = new ArrayList<>();
+    CompilationError signatureError = null;
+
+    deferredBodies = bodies;
+    views = new ArrayList<>();
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
     } catch (CompilationError error){
-      Kali.compilationError(error);
+      signatureError = error; // bodies recorded so far still come first in the source
+    } finally {
+      deferredBodies = null;
+      views = null;
+    }
+
+    if (!checkBodies) bodies.clear();
+    CompilationError[] errors = new CompilationError[bodies.size()];
+    if (bodies.size() <= BODIES_PER_TASK) {
+      new BodyTask(bodies, errors, 0, bodies.size()).compute();
+    } else {
+      ForkJoinPool.commonPool().invoke(new BodyTask(bodies, errors, 0, bodies.size()));
+    }
+
+    for (CompilationError error : errors) {
+      if (error != null) {
+        Kali.compilationError(error);
+        return;
+      }
+    }
+    if (signatureError != null) Kali.compilationError(signatureError);
+  }
+
+  /** A function or method body and the scope it was declared in. */
+  private static class Body {
+    final Stmt.Function function;
+    final Environment scope;
+
+    Body(Stmt.Function function, Environment scope) {
+      this.function = function;
+      this.scope = scope;
+    }
+  }
+
+  /** Checks a range of bodies, splitting it in half until it is small enough. */
+  @SuppressWarnings("serial") // a fork/join task, never serialized
+  private static class BodyTask extends RecursiveAction {
+    private final List<Body> bodies;
+    private final CompilationError[] errors;
+    private final int from;
+    private final int to;
+
+    BodyTask(List<Body> bodies, CompilationError[] errors, int from, int to) {
+      this.bodies = bodies;
+      this.errors = errors;
+      this.from = from;
+      this.to = to;
     }
+
+    @Override
+    protected void compute() {
+      if (to - from > BODIES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new BodyTask(bodies, errors, from, middle), new BodyTask(bodies, errors, middle, to));
+        return;
+      }
+
+      for (int i = from; i < to; i++) {
+        Body body = bodies.get(i);
+        try {
+          new TypeChecker(body.scope, Collections.emptyMap()).checkFunction(body.function);
+        } catch (CompilationError error) {
+          errors[i] = error;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks a function body now, or records it for the second phase while the signature pass runs
+   * over the top level. A recorded body sees the declaring scope as it is at the end of the pass,
+   * which is only right for the class scopes and the views of the root scope (see view).
+   */
+  private void checkBody(Stmt.Function stmt) {
+    if (deferredBodies != null) {
+      deferredBodies.add(new Body(stmt, environment));
+    } else {
+      checkFunction(stmt);
+    }
+  }
+
+  /**
+   * The scope a top-level function or class declares its bodies in. While bodies are recorded, that
+   * is a view of the root scope of its own: when the signature pass declares a global again, the view
+   * keeps the type the global had before (see define), so the body checks against the globals of its
+   * declaration, as it would if it were checked on the spot. Names declared after the body are still
+   * seen through the view, so functions can call the ones declared below them.
+   */
+  private Environment view() {
+    if (deferredBodies == null) return environment;
+    Environment view = new Environment(environment);
+    views.add(view);
+    return view;
+  }
+
+  /** Defines a name in the current scope, first handing a global's old type to the views. */
+  private void define(String name, Object type) {
+    if (deferredBodies != null && environment.hasCurrent(name)) {
+      Object previous = environment.getAt(0, name);
+      for (Environment view : views) {
+        if (!view.hasCurrent(name)) view.define(name, previous);
+      }
+    }
+    environment.define(name, type);
   }
 
   @Override
@@ -61,12 +238,34 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
     return null;
   }
 
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    checkNumberOperands(stmt.keyword, evaluate(stmt.from), evaluate(stmt.to));
+
+    Environment loop = new Environment(environment);
+    loop.define(stmt.variable.lexeme, DataType.NUMBER);
+    for (Expr.Variable reduction : stmt.reductions) {
+      if (evaluate(reduction) != DataType.NUMBER) {
+        throw new CompilationError(reduction.name, "Reduction variable '" + reduction.name.lexeme + "' must be a number.");
+      }
+      loop.define(reduction.name.lexeme, DataType.NUMBER);
+    }
+
+    executeBlock(Collections.singletonList(stmt.body), loop);
+    return null;
+  }
+
   @Override
   public Void visitExpressionStmt(Expression stmt) {
     evaluate(stmt.expression);
     return null;
   }
 
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    return null; // the exports of imported modules are in the root scope already
+  }
+
   @Override
   public Void visitPrintStmt(Print stmt) {
     evaluate(stmt.expression);
@@ -75,17 +274,7 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
 
   @Override
   public Void visitVarStmt(Var stmt) {
-    Object declaredType = DataType.NIL;
-    if (stmt.type.type == TokenType.TYPE_NUMBER) declaredType = DataType.NUMBER;
-    else if (stmt.type.type == TokenType.TYPE_STRING) declaredType = DataType.STRING;
-    else if (stmt.type.type == TokenType.TYPE_BOOLEAN) declaredType = DataType.BOOLEAN;
-    else if (stmt.type.type == TokenType.IDENTIFIER) {
-      try {
-        declaredType = environment.get(stmt.type); //get the declared type
-      } catch (RuntimeError error) {
-        throw new CompilationError(stmt.type, "Unknown class type '" + stmt.type.lexeme + "'.");
-      }
-    }
+    Object declaredType = resolveType(stmt.type, environment, "Unknown class type"); //get the declared type
 
     //check invalid assignment
     if (stmt.initializer != null) {
@@ -96,7 +285,7 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
       }
     }
 
-    environment.define(stmt.name.lexeme, declaredType);
+    define(stmt.name.lexeme, declaredType);
     return null;
   }
 
@@ -148,9 +337,105 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
       throw new CompilationError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
     }
     
+    if (isArray(object)) {
+      if (expr.name.lexeme.equals("length")) return DataType.NUMBER;
+      KaliNative method = ((CompositeType)object).element() == DataType.NUMBER ? KaliArray.method(expr.name.lexeme, null) : null;
+      if (method != null) return method;
+      throw new CompilationError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    if (isMap(object)) {
+      List<Object> types = ((CompositeType)object).arguments;
+      KaliNative method = KaliMap.method(expr.name.lexeme, types.get(0), types.get(1), null);
+      if (method != null) return method;
+      throw new CompilationError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    if (object instanceof CompositeType && ((CompositeType)object).kind == TokenType.TYPE_CHANNEL) {
+      KaliNative method = KaliChannel.method(expr.name.lexeme, ((CompositeType)object).element(), null);
+      if (method != null) return method;
+      throw new CompilationError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
     throw new CompilationError(expr.name, "Only instances have properties.");
   }
 
+  @Override
+  public Object visitSpawnExpr(Expr.Spawn expr) {
+    return new CompositeType(TokenType.TYPE_TASK, Collections.singletonList(evaluate(expr.call)));
+  }
+
+  @Override
+  public Object visitAwaitExpr(Expr.Await expr) {
+    Object task = evaluate(expr.value);
+    if (!(task instanceof CompositeType) || ((CompositeType)task).kind != TokenType.TYPE_TASK) {
+      throw new CompilationError(expr.keyword, "Can only await a task, not " + task + ".");
+    }
+    return ((CompositeType)task).element();
+  }
+
+  @Override
+  public Object visitConstructExpr(Expr.Construct expr) {
+    if (expr.type.type == TokenType.TYPE_TASK) {
+      throw new CompilationError(expr.type, "Tasks are created with spawn.");
+    }
+    if (expr.type.type == TokenType.TYPE_MAP) {
+      if (!expr.arguments.isEmpty()) {
+        throw new CompilationError(expr.paren, "Expected 0 arguments but got " + expr.arguments.size() + ".");
+      }
+      return resolveType(expr.type, environment, "Unknown class type");
+    }
+    if (expr.arguments.size() != 1) {
+      throw new CompilationError(expr.paren, "Expected 1 arguments but got " + expr.arguments.size() + ".");
+    }
+    if (evaluate(expr.arguments.get(0)) != DataType.NUMBER) {
+      throw new CompilationError(expr.paren, expr.type.type == TokenType.TYPE_ARRAY
+          ? "Array length must be a number." : "Channel capacity must be a number.");
+    }
+    return resolveType(expr.type, environment, "Unknown class type");
+  }
+
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    return element(expr.bracket, evaluate(expr.object), evaluate(expr.index));
+  }
+
+  @Override
+  public Object visitIndexSetExpr(Expr.IndexSet expr) {
+    Object element = element(expr.bracket, evaluate(expr.object), evaluate(expr.index));
+    Object value = evaluate(expr.value);
+    if (value != element && !checkInheritance(element, value)) {
+      throw new CompilationError(expr.bracket, "Element of type " + element + " assigned " + value + ".");
+    }
+    return value;
+  }
+
+  /** The type of a[index]: the element type of an array, or the value type of a map. */
+  private Object element(Token bracket, Object array, Object index) {
+    if (isMap(array)) {
+      List<Object> types = ((CompositeType)array).arguments;
+      if (index != types.get(0)) {
+        throw new CompilationError(bracket, "Map key must be " + types.get(0) + " but got " + index + ".");
+      }
+      return types.get(1);
+    }
+    if (!isArray(array)) {
+      throw new CompilationError(bracket, "Can only index arrays, not " + array + ".");
+    }
+    if (index != DataType.NUMBER) {
+      throw new CompilationError(bracket, "Array index must be a number.");
+    }
+    return ((CompositeType)array).element();
+  }
+
+  private static boolean isArray(Object type) {
+    return type instanceof CompositeType && ((CompositeType)type).kind == TokenType.TYPE_ARRAY;
+  }
+
+  private static boolean isMap(Object type) {
+    return type instanceof CompositeType && ((CompositeType)type).kind == TokenType.TYPE_MAP;
+  }
+
   @Override
   public Void visitSetExpr(Expr.Set expr) {
     Object object = evaluate(expr.object);
@@ -184,11 +469,18 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
+    KaliClass superclass;
     try {
-      return environment.get(expr.keyword);
+      superclass = (KaliClass)environment.get(expr.keyword);
     } catch (RuntimeError error) {
       throw new CompilationError(expr.keyword, error.getMessage());
     }
+
+    KaliFunction method = superclass.findMethod(expr.method.lexeme);
+    if (method == null) {
+      throw new CompilationError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+    }
+    return method;
   }
 
   @Override
@@ -262,6 +554,10 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
       return klass;
     }
 
+    if (callee instanceof KaliNative) {
+      return checkNativeCall(expr, (KaliNative)callee);
+    }
+
     if (!(callee instanceof KaliFunction)) {
       throw new CompilationError(expr.paren, "Can only call functions.");
     }
@@ -276,17 +572,7 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
         Object argType = evaluate(expr.arguments.get(i));
         Token paramTypeToken = function.declaration.paramTypes.get(i);
         
-        Object expectedType = DataType.NIL;
-        if (paramTypeToken.type == TokenType.TYPE_NUMBER) expectedType = DataType.NUMBER;
-        else if (paramTypeToken.type == TokenType.TYPE_STRING) expectedType = DataType.STRING;
-        else if (paramTypeToken.type == TokenType.TYPE_BOOLEAN) expectedType = DataType.BOOLEAN;
-        else if (paramTypeToken.type == TokenType.IDENTIFIER) {
-            try {
-                expectedType = environment.get(paramTypeToken);
-            } catch (RuntimeError e) {
-                throw new CompilationError(paramTypeToken, "Unknown param type '" + paramTypeToken.lexeme + "'.");
-            }
-        }
+        Object expectedType = resolveType(paramTypeToken, function.closure, "Unknown param type");
 
         if (argType != expectedType && !checkInheritance(expectedType, argType)) {
             throw new CompilationError(expr.paren, "Argument " + (i+1) + " expects " + expectedType + " but got " + argType + ".");
@@ -294,46 +580,44 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
     }
 
     //Return Statement Type must be the same as the Expected Type
-    Token returnTypeToken = function.declaration.type;
-    if (returnTypeToken.type == TokenType.TYPE_NUMBER) return DataType.NUMBER;
-    else if (returnTypeToken.type == TokenType.TYPE_VOID) return DataType.VOID;
-    else if (returnTypeToken.type == TokenType.TYPE_STRING) return DataType.STRING;
-    else if (returnTypeToken.type == TokenType.TYPE_BOOLEAN) return DataType.BOOLEAN;
-    else if (returnTypeToken.type == TokenType.IDENTIFIER) {
-      try {
-        return environment.get(returnTypeToken);
-      } catch (RuntimeError e) {
-        throw new CompilationError(returnTypeToken, "Unknown return type '" + returnTypeToken.lexeme + "'.");
+    return resolveType(function.declaration.type, function.closure, "Unknown return type");
+  }
+
+  private Object checkNativeCall(Expr.Call expr, KaliNative function) {
+    if (expr.arguments.size() != function.arity()) {
+      throw new CompilationError(expr.paren, "Expected " + function.arity() + " arguments but got " + expr.arguments.size() + ".");
+    }
+
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      Object argType = evaluate(expr.arguments.get(i));
+      Object expectedType = function.paramTypes.get(i);
+      if (expectedType != null && argType != expectedType && !checkInheritance(expectedType, argType)) {
+        throw new CompilationError(expr.paren, "Argument " + (i+1) + " expects " + expectedType + " but got " + argType + ".");
       }
     }
-    
-    return DataType.NIL;
+
+    return function.returnType;
   }
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt){
     KaliFunction function = new KaliFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    define(stmt.name.lexeme, function);
 
-    checkFunction(stmt);
+    Environment previous = this.environment;
+    this.environment = view();
+    try {
+      checkBody(stmt);
+    } finally {
+      this.environment = previous;
+    }
     return null;
   }
 
   private void checkFunction(Stmt.Function stmt) {
     Object enclosingFunctionType = currentReturnType;
     
-    if (stmt.type.type == TokenType.TYPE_VOID) currentReturnType = DataType.VOID;
-    else if (stmt.type.type == TokenType.TYPE_NUMBER) currentReturnType = DataType.NUMBER;
-    else if (stmt.type.type == TokenType.TYPE_STRING) currentReturnType = DataType.STRING;
-    else if (stmt.type.type == TokenType.TYPE_BOOLEAN) currentReturnType = DataType.BOOLEAN;
-    else if (stmt.type.type == TokenType.IDENTIFIER) {
-      try {
-        currentReturnType = environment.get(stmt.type);
-      } catch (RuntimeError error) {
-        throw new CompilationError(stmt.type, "Unknown class type '" + stmt.type.lexeme + "'.");
-      }
-    }
-    else currentReturnType = DataType.NIL;
+    currentReturnType = resolveType(stmt.type, environment, "Unknown class type");
 
     Environment previous = this.environment;
     this.environment = new Environment(environment);
@@ -343,12 +627,7 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
             Token paramName = stmt.params.get(i);
             Token paramType = stmt.paramTypes.get(i);
             
-            DataType dataType = DataType.NIL;
-            if (paramType.type == TokenType.TYPE_NUMBER) dataType = DataType.NUMBER;
-            else if (paramType.type == TokenType.TYPE_STRING) dataType = DataType.STRING;
-            else if (paramType.type == TokenType.TYPE_BOOLEAN) dataType = DataType.BOOLEAN;
-            
-            environment.define(paramName.lexeme, dataType);
+            environment.define(paramName.lexeme, resolveType(paramType, environment, "Unknown param type"));
         }
 
         executeBlock(stmt.body, this.environment);
@@ -429,7 +708,7 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
       currentSuperClassType = ((KaliClass)superclass).name;
     }
 
-    environment.define(stmt.name.lexeme, null);
+    define(stmt.name.lexeme, null);
 
     Map<String, KaliFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
@@ -439,31 +718,26 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
     }
 
     Map<String, Object> fields = new HashMap<>();
-    for (Stmt.Var field : stmt.fields) {
-      Object type = DataType.NIL;
-      if (field.type.type == TokenType.TYPE_NUMBER) type = DataType.NUMBER;
-      else if (field.type.type == TokenType.TYPE_STRING) type = DataType.STRING;
-      else if (field.type.type == TokenType.TYPE_BOOLEAN) type = DataType.BOOLEAN;
-      else if (field.type.type == TokenType.IDENTIFIER) {
-        try {
-          type = environment.get(field.type); 
-        } catch (RuntimeError error) {
-          throw new CompilationError(field.type, "Unknown type.");
-        }
-      }
-      fields.put(field.name.lexeme, type);
-    }
-
     KaliClass klass = new KaliClass(stmt.name.lexeme, (KaliClass)superclass, methods, fields);
     environment.assign(stmt.name, klass);
 
+    // after the class is defined, so a field can have the type of its own class (e.g. a tree node's children)
+    for (Stmt.Var field : stmt.fields) {
+      fields.put(field.name.lexeme, resolveType(field.type, environment, "Unknown type"));
+    }
+
     Environment previous = this.environment;
+    this.environment = view();
+    if (superclass != null) {
+      this.environment = new Environment(environment); // like the interpreter, super is one scope out from this
+      this.environment.define("super", superclass);
+    }
     this.environment = new Environment(environment);
     this.environment.define("this", klass); //this refers to the KaliInstance
 
     try {
       for (Stmt.Function method : stmt.methods) {
-        checkFunction(method);
+        checkBody(method);
       }
     } finally {
       this.environment = previous;
@@ -530,7 +804,42 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
     throw new CompilationError(null, "Condition must be booleans.");
   }
 
+  /**
+   * The type a type annotation stands for: a DataType, a KaliClass looked up in scope, or for
+   * task<T> and channel<T> a CompositeType.
+   * @param unknown What to call a class name that is not in scope, e.g. "Unknown param type".
+   */
+  private Object resolveType(Token type, Environment scope, String unknown) {
+    switch (type.type) {
+      case TYPE_NUMBER: return DataType.NUMBER;
+      case TYPE_STRING: return DataType.STRING;
+      case TYPE_BOOLEAN: return DataType.BOOLEAN;
+      case TYPE_VOID: return DataType.VOID;
+      case TYPE_TASK:
+      case TYPE_CHANNEL:
+      case TYPE_MAP:
+      case TYPE_ARRAY:
+        List<Object> arguments = new ArrayList<>();
+        for (Token argument : ((TypeToken)type).arguments) {
+          arguments.add(resolveType(argument, scope, unknown));
+        }
+        if (type.type == TokenType.TYPE_MAP && arguments.get(0) != DataType.NUMBER && arguments.get(0) != DataType.STRING) {
+          throw new CompilationError(type, "Map keys must be numbers or strings.");
+        }
+        return new CompositeType(type.type, arguments);
+      case IDENTIFIER:
+        try {
+          return scope.get(type);
+        } catch (RuntimeError error) {
+          throw new CompilationError(type, unknown + " '" + type.lexeme + "'.");
+        }
+      default:
+        return DataType.NIL;
+    }
+  }
+
   private boolean checkInheritance(Object declaredType, Object initializerType){
+    if (declaredType instanceof CompositeType) return declaredType.equals(initializerType);
     if (declaredType instanceof KaliClass && initializerType instanceof KaliClass){
       KaliClass current = (KaliClass)initializerType;
       //this seems dirty but this is the most i could think of how to implement. for the chaining process
@@ -544,14 +853,17 @@ public class TypeChecker implements Expr.Visitor<Object>, Stmt.Visitor<Void>  {
 
   void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
+    List<Body> deferred = deferredBodies;
     try {
       this.environment = environment;
+      deferredBodies = null; // the block keeps growing after a declaration, see checkBody
 
       for (Stmt statement : statements) {
         execute(statement);
       }
     } finally {
       this.environment = previous;
+      deferredBodies = deferred;
     }
   }
 }
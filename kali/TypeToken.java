@@ -0,0 +1,38 @@
+package kali;
+
+import java.util.List;
+
+/**
+ * A compound type annotation such as task<number>, map<string, Point> or number[]: the type keyword
+ * (for arrays a TYPE_ARRAY token) together with its type arguments. It stands in for the single type token wherever one is expected
+ * (declarations, parameters, constructions), so the AST classes need no extra fields.
+ */
+class TypeToken extends Token {
+  final List<Token> arguments;
+
+  TypeToken(Token keyword, List<Token> arguments) {
+    super(keyword.type, spell(keyword, arguments), null, keyword.line);
+    this.arguments = arguments;
+  }
+
+  /** The keyword token of a compound type, rebuilt from its type (see FlatAst). */
+  static Token keyword(TokenType type, int line) {
+    switch (type) {
+      case TYPE_TASK: return new Token(type, "task", null, line);
+      case TYPE_CHANNEL: return new Token(type, "channel", null, line);
+      case TYPE_MAP: return new Token(type, "map", null, line);
+      default: return new Token(type, "[]", null, line);
+    }
+  }
+
+  private static String spell(Token keyword, List<Token> arguments) {
+    if (keyword.type == TokenType.TYPE_ARRAY) return arguments.get(0).lexeme + "[]";
+
+    StringBuilder lexeme = new StringBuilder(keyword.lexeme).append('<');
+    for (int i = 0; i < arguments.size(); i++) {
+      if (i > 0) lexeme.append(", ");
+      lexeme.append(arguments.get(i).lexeme);
+    }
+    return lexeme.append('>').toString();
+  }
+}
@@ -0,0 +1,73 @@
+package kali.natives;
+
+/**
+ * Bulk operations on the double[] behind number[], for the array methods of Kali (see KaliArray).
+ *
+ * They run on the Vector API when the JVM was started with --add-modules jdk.incubator.vector and
+ * VectorKernels was compiled, and on plain loops otherwise; -Dkali.simd=false forces the loops.
+ * The checks are the caller's: arrays passed together must have the same length, and min and max
+ * need at least one element.
+ */
+public final class ArrayMath {
+  private static final Kernels KERNELS = load();
+
+  private ArrayMath() {}
+
+  private static Kernels load() {
+    if (!Boolean.parseBoolean(System.getProperty("kali.simd", "true"))) return new ScalarKernels();
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return new ScalarKernels();
+    try {
+      return (Kernels)Class.forName("kali.natives.VectorKernels").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return new ScalarKernels(); // not compiled, or the module is not readable
+    }
+  }
+
+  /** Whether the kernels use the Vector API. */
+  public static boolean vectorized() {
+    return !(KERNELS instanceof ScalarKernels);
+  }
+
+  public static double sum(double[] a) {
+    return KERNELS.sum(a);
+  }
+
+  public static double dot(double[] a, double[] b) {
+    return KERNELS.dot(a, b);
+  }
+
+  public static double min(double[] a) {
+    return KERNELS.min(a);
+  }
+
+  public static double max(double[] a) {
+    return KERNELS.max(a);
+  }
+
+  public static double[] add(double[] a, double[] b) {
+    double[] out = new double[a.length];
+    KERNELS.add(a, b, out);
+    return out;
+  }
+
+  public static double[] mul(double[] a, double[] b) {
+    double[] out = new double[a.length];
+    KERNELS.mul(a, b, out);
+    return out;
+  }
+
+  public static double[] scale(double[] a, double factor) {
+    double[] out = new double[a.length];
+    KERNELS.scale(a, factor, out);
+    return out;
+  }
+
+  /**
+   * @return One bit per element, set where a[i] < b[i]: the words of a boolean[].
+   */
+  public static long[] less(double[] a, double[] b) {
+    long[] bits = new long[(a.length + 63) >>> 6];
+    KERNELS.less(a, b, bits);
+    return bits;
+  }
+}
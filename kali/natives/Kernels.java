@@ -0,0 +1,25 @@
+package kali.natives;
+
+/**
+ * The loops behind ArrayMath. Callers have checked the lengths: out and b are as long as a,
+ * bits has a bit for every element of a and starts out all zero.
+ */
+interface Kernels {
+  double sum(double[] a);
+
+  double dot(double[] a, double[] b);
+
+  /** Of a non-empty array; NaN if any element is NaN, like Math.min. */
+  double min(double[] a);
+
+  double max(double[] a);
+
+  void add(double[] a, double[] b, double[] out);
+
+  void mul(double[] a, double[] b, double[] out);
+
+  void scale(double[] a, double factor, double[] out);
+
+  /** Sets bit i (bits[i / 64], bit i % 64) when a[i] < b[i]. */
+  void less(double[] a, double[] b, long[] bits);
+}
@@ -0,0 +1,57 @@
+package kali.natives;
+
+/**
+ * Plain loops, used when the Vector API is not available. C2 vectorizes add, mul and scale on
+ * its own; the reductions stay sequential, so sums come out exactly as a Kali loop computes them.
+ */
+final class ScalarKernels implements Kernels {
+  @Override
+  public double sum(double[] a) {
+    double sum = 0;
+    for (double value : a) sum += value;
+    return sum;
+  }
+
+  @Override
+  public double dot(double[] a, double[] b) {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+    return sum;
+  }
+
+  @Override
+  public double min(double[] a) {
+    double min = a[0];
+    for (int i = 1; i < a.length; i++) min = Math.min(min, a[i]);
+    return min;
+  }
+
+  @Override
+  public double max(double[] a) {
+    double max = a[0];
+    for (int i = 1; i < a.length; i++) max = Math.max(max, a[i]);
+    return max;
+  }
+
+  @Override
+  public void add(double[] a, double[] b, double[] out) {
+    for (int i = 0; i < a.length; i++) out[i] = a[i] + b[i];
+  }
+
+  @Override
+  public void mul(double[] a, double[] b, double[] out) {
+    for (int i = 0; i < a.length; i++) out[i] = a[i] * b[i];
+  }
+
+  @Override
+  public void scale(double[] a, double factor, double[] out) {
+    for (int i = 0; i < a.length; i++) out[i] = a[i] * factor;
+  }
+
+  @Override
+  public void less(double[] a, double[] b, long[] bits) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] < b[i]) bits[i >>> 6] |= 1L << i;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package kali.natives;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels on jdk.incubator.vector, in the widest shape the CPU supports. Each loop runs whole
+ * vectors up to loopBound and finishes the remaining elements one at a time.
+ *
+ * The reductions keep one partial result per lane and combine them at the end, so sum and dot may
+ * differ from the sequential sum in the last bits.
+ *
+ * Only ArrayMath refers to this class, and only by name: it compiles and loads only with
+ * --add-modules jdk.incubator.vector (see readme.md).
+ */
+final class VectorKernels implements Kernels {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+
+  @Override
+  public double sum(double[] a) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      sums = sums.add(DoubleVector.fromArray(SPECIES, a, i));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < a.length; i++) sum += a[i];
+    return sum;
+  }
+
+  @Override
+  public double dot(double[] a, double[] b) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      sums = DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).add(sums);
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < a.length; i++) sum += a[i] * b[i];
+    return sum;
+  }
+
+  @Override
+  public double min(double[] a) {
+    DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      mins = mins.min(DoubleVector.fromArray(SPECIES, a, i));
+    }
+    double min = mins.reduceLanes(VectorOperators.MIN);
+    for (; i < a.length; i++) min = Math.min(min, a[i]);
+    return min;
+  }
+
+  @Override
+  public double max(double[] a) {
+    DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      maxes = maxes.max(DoubleVector.fromArray(SPECIES, a, i));
+    }
+    double max = maxes.reduceLanes(VectorOperators.MAX);
+    for (; i < a.length; i++) max = Math.max(max, a[i]);
+    return max;
+  }
+
+  @Override
+  public void add(double[] a, double[] b, double[] out) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+    }
+    for (; i < a.length; i++) out[i] = a[i] + b[i];
+  }
+
+  @Override
+  public void mul(double[] a, double[] b, double[] out) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+    }
+    for (; i < a.length; i++) out[i] = a[i] * b[i];
+  }
+
+  @Override
+  public void scale(double[] a, double factor, double[] out) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      DoubleVector.fromArray(SPECIES, a, i).mul(factor).intoArray(out, i);
+    }
+    for (; i < a.length; i++) out[i] = a[i] * factor;
+  }
+
+  @Override
+  public void less(double[] a, double[] b, long[] bits) {
+    int i = 0;
+    // LANES divides 64, so the lanes of one comparison land in the same word
+    for (int bound = SPECIES.loopBound(a.length); i < bound; i += LANES) {
+      long mask = DoubleVector.fromArray(SPECIES, a, i)
+        .compare(VectorOperators.LT, DoubleVector.fromArray(SPECIES, b, i)).toLong();
+      bits[i >>> 6] |= mask << i;
+    }
+    for (; i < a.length; i++) {
+      if (a[i] < b[i]) bits[i >>> 6] |= 1L << i;
+    }
+  }
+}
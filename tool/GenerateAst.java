@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A command-line tool to generate the Abstract Syntax Tree (AST) classes for the Kali language.
@@ -12,11 +13,19 @@ import java.util.List;
  * 1. The base abstract classes (Expr, Stmt).
  * 2. The standard Visitor interface for each tree.
  * 3. The specific subclasses for each AST node (e.g., Binary, Grouping, Literal).
+ * 4. The resolution slot of the expressions that name a variable (see RESOLVABLE).
+ * 5. A kind tag on every node, for switching on the node type (see defineKinds).
  *
  * Usage:
  *   java tool.GenerateAst <output_directory>
  */
 public class GenerateAst {
+  /**
+   * Expressions the Resolver binds to a scope. They extend Expr.Resolvable, whose depth field
+   * holds the scope distance, so the Interpreter reads it off the node on every access instead
+   * of looking the node up in a map.
+   */
+  private static final Set<String> RESOLVABLE = Set.of("Assign", "This", "Super", "Variable");
 
   /**
    * Main entry point for the AST generation tool.
@@ -45,7 +54,12 @@ public class GenerateAst {
       "Logical   : Expr left, Token operator, Expr right",
       "Unary     : Token operator, Expr right",
       "UnaryPost : Expr left, Token operator",
-      "Variable  : Token name"
+      "Variable  : Token name",
+      "Spawn     : Token keyword, Expr.Call call",
+      "Await     : Token keyword, Expr value",
+      "Construct : Token type, Token paren, List<Expr> arguments",
+      "Index     : Expr object, Token bracket, Expr index",
+      "IndexSet  : Expr object, Token bracket, Expr index, Expr value"
     ));
 
     // Define the Statement AST (Stmt.java)
@@ -53,12 +67,14 @@ public class GenerateAst {
       "Block      : List<Stmt> statements",
       "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Var> fields",
       "Expression : Expr expression",
+      "Import     : Token keyword, Token path",
       "Function   : Token name, Token type, List<Token> params, List<Token> paramTypes, List<Stmt> body",
       "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
       "Print      : Expr expression",
       "Return     : Token keyword, Expr value",
       "Var        : Token name, Token type, Expr initializer",
-      "While      : Expr condition, Stmt body"
+      "While      : Expr condition, Stmt body",
+      "ParallelFor : Token keyword, Token variable, Expr from, Expr to, List<Token> operators, List<Expr.Variable> reductions, Stmt body"
     ));
   }
 
@@ -79,10 +95,22 @@ public class GenerateAst {
     writer.println("import kali.Token;");
     writer.println("import java.util.List;");
     writer.println();
-    writer.println("abstract class " + baseName + " {");
+    // Sealed: the subclasses below are all there is, so a switch on the kind covers every node.
+    writer.println("abstract sealed class " + baseName + " {");
+
+    defineKinds(writer, types);
+
+    // Counts nodes for --stats; the check folds away when stats are off.
+    writer.println("  " + baseName + "(byte kind) {");
+    writer.println("    this.kind = kind;");
+    writer.println("    if (KaliStats.ENABLED) KaliStats.NODES.increment();");
+    writer.println("  }");
+    writer.println();
 
     defineVisitor(writer, baseName, types);
 
+    if (baseName.equals("Expr")) defineResolvable(writer);
+
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
@@ -98,6 +126,30 @@ public class GenerateAst {
     writer.close();
   }
 
+  /**
+   * Generates the kind constants, one per type in the order they are listed, and the kind field.
+   * The Interpreter switches on the kind of a statement instead of calling accept, so running one
+   * is a tableswitch in a method the JIT can see through, not a megamorphic virtual call.
+   *
+   * @param writer The PrintWriter to write to.
+   * @param types  The list of types to number.
+   */
+  private static void defineKinds(PrintWriter writer, List<String> types) {
+    writer.println("  // Node kinds.");
+    for (int i = 0; i < types.size(); i++) {
+      writer.println("  static final byte " + kindName(types.get(i).split(":")[0].trim()) + " = " + i + ";");
+    }
+    writer.println();
+    writer.println("  /** Which of the node classes this is, one of the kinds above. */");
+    writer.println("  final byte kind;");
+    writer.println();
+  }
+
+  /** The name of the kind constant for a type: UnaryPost becomes UNARY_POST. */
+  private static String kindName(String className) {
+    return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+  }
+
   /**
    * Generates the Visitor interface within the base class.
    *
@@ -117,6 +169,27 @@ public class GenerateAst {
     writer.println("  }");
   }
 
+  /**
+   * Generates the base class of the RESOLVABLE expressions, with their resolution slot.
+   *
+   * @param writer The PrintWriter to write to.
+   */
+  private static void defineResolvable(PrintWriter writer) {
+    writer.println();
+    writer.println("  /** The depth of a variable that is not in any local scope. */");
+    writer.println("  static final int GLOBAL = -1;");
+    writer.println();
+    writer.println("  /** An expression naming a variable, which the Resolver binds to a scope. */");
+    writer.println("  abstract static sealed class Resolvable extends Expr {");
+    writer.println("    Resolvable(byte kind) {");
+    writer.println("      super(kind);");
+    writer.println("    }");
+    writer.println();
+    writer.println("    /** How many environments out from the current one the variable lives, or GLOBAL; set by the Resolver. */");
+    writer.println("    int depth = GLOBAL;");
+    writer.println("  }");
+  }
+
   /**
    * Generates the subclass for a specific AST node type.
    *
@@ -128,10 +201,12 @@ public class GenerateAst {
   private static void defineType(
     PrintWriter writer, String baseName,
     String className, String fieldList) {
-    writer.println("  static class " + className + " extends " + baseName + " {");
+    String superclass = baseName.equals("Expr") && RESOLVABLE.contains(className) ? "Resolvable" : baseName;
+    writer.println("  static final class " + className + " extends " + superclass + " {");
 
     // Constructor.
     writer.println("    " + className + "(" + fieldList + ") {");
+    writer.println("      super(" + kindName(className) + ");");
 
     // Store parameters in fields.
     String[] fields = fieldList.split(", ");